@@ -0,0 +1,410 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the state of a crawl to a directory so that a crawl interrupted
+ * part-way through can be resumed without refetching pages. The directory
+ * holds four files:
+ *
+ * <ul>
+ * <li>{@value #DOCUMENTS}: an append-only log of every indexed page and its
+ * words, so the index is saved incrementally rather than rewritten</li>
+ * <li>{@value #SEEN}: the fingerprints of every URL seen so far, along with
+ * the number of pages scheduled against the crawl limit</li>
+ * <li>{@value #FRONTIER}: every page that was waiting or in progress</li>
+ * <li>{@value #VALIDATORS}: the ETag, Last-Modified and content hash of every
+ * finished page, used to skip unchanged pages when re-crawling</li>
+ * </ul>
+ *
+ * The seen set, frontier and validators are small compared to the index and
+ * are replaced atomically on each save. A page recorded more than once in the
+ * log was re-crawled after it changed, and only its last record is kept. A
+ * page may appear both in the log and in the frontier if it was indexed during
+ * a save; indexing the same words twice leaves the index unchanged, so this is
+ * harmless.
+ */
+public class CrawlCheckpoint {
+
+	/** Name of the log of indexed pages. */
+	public static final String DOCUMENTS = "documents.log";
+
+	/** Name of the file holding the seen URL fingerprints. */
+	public static final String SEEN = "seen.bin";
+
+	/** Name of the file holding the unfinished pages. */
+	public static final String FRONTIER = "frontier.txt";
+
+	/** Name of the file holding the validators of finished pages. */
+	public static final String VALIDATORS = "validators.txt";
+
+	/** The default number of seconds between checkpoints. */
+	public static final int DEFAULT_INTERVAL = 30;
+
+	private final Path directory;
+	private final HashMap<String, Validators> validators;
+	private BufferedWriter documents;
+
+	/**
+	 * Creates a checkpoint stored in the given directory.
+	 *
+	 * @param directory
+	 *            directory to store checkpoint files in
+	 */
+	public CrawlCheckpoint(Path directory) {
+		this.directory = directory;
+		this.validators = new HashMap<>();
+		this.documents = null;
+	}
+
+	/**
+	 * Tests whether a previous crawl saved a checkpoint to the directory.
+	 *
+	 * @return true if there is a checkpoint to resume from
+	 */
+	public boolean exists() {
+		return Files.isRegularFile(directory.resolve(SEEN)) && Files.isRegularFile(directory.resolve(FRONTIER));
+	}
+
+	/**
+	 * Restores a saved crawl: replays the log of indexed pages into the index,
+	 * loads the saved validators, adds the saved fingerprints to the seen set,
+	 * and adds the unfinished pages to the frontier.
+	 *
+	 * @param index
+	 *            index to add saved pages to
+	 * @param urls
+	 *            seen set to add saved fingerprints to
+	 * @param frontier
+	 *            frontier to add unfinished pages to
+	 * @param duplicates
+	 *            near-duplicate table to add the fingerprints of saved pages
+	 *            to, or null if duplicates are not being detected
+	 * @return number of pages that had been scheduled against the crawl limit
+	 * @throws IOException
+	 */
+	public int restore(InvertedIndex index, URLSeenSet urls, CrawlFrontier frontier, SimHash duplicates)
+			throws IOException {
+		restoreIndex(index, duplicates);
+
+		int scheduled;
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(directory.resolve(SEEN)))) {
+			scheduled = in.readInt();
+			urls.read(in);
+		}
+
+		for (String line : Files.readAllLines(directory.resolve(FRONTIER), StandardCharsets.UTF_8)) {
+			try {
+				if (!line.isEmpty()) {
+					frontier.add(new URL(line));
+				}
+			} catch (MalformedURLException e) {
+				System.out.println("~ Issue with URL ~");
+			}
+		}
+		return scheduled;
+	}
+
+	/**
+	 * Replays the log of indexed pages into the index and loads the saved
+	 * validators, without restoring the seen set or frontier. Used to start a
+	 * re-crawl of the pages from a previous crawl.
+	 *
+	 * @param index
+	 *            index to add saved pages to
+	 * @param duplicates
+	 *            near-duplicate table to add the fingerprints of saved pages
+	 *            to, or null if duplicates are not being detected
+	 * @throws IOException
+	 */
+	public void restoreIndex(InvertedIndex index, SimHash duplicates) throws IOException {
+		Path log = directory.resolve(DOCUMENTS);
+		if (Files.isRegularFile(log)) {
+			HashSet<String> replayed = new HashSet<>();
+
+			try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t", 3);
+
+					// skips a record torn by a crash part-way through a write
+					if (fields.length == 3 && fields[1].equals(String.valueOf(fields[2].length()))) {
+						if (!replayed.add(fields[0])) {
+							index.remove(fields[0]);
+						}
+
+						String[] words = WordParser.split(fields[2]);
+						index.addAll(words, fields[0]);
+						if (duplicates != null && words.length > 0) {
+							duplicates.add(SimHash.fingerprint(words));
+						}
+					}
+				}
+			}
+		}
+
+		Path saved = directory.resolve(VALIDATORS);
+		if (Files.isRegularFile(saved)) {
+			synchronized (this) {
+				for (String line : Files.readAllLines(saved, StandardCharsets.UTF_8)) {
+					String[] fields = line.split("\t", -1);
+					if (fields.length == 4) {
+						validators.put(fields[0], new Validators(empty(fields[1]), empty(fields[2]), empty(fields[3])));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns every page with saved validators, which is every page finished
+	 * by a previous crawl.
+	 *
+	 * @return previously crawled pages
+	 */
+	public synchronized List<URL> finished() {
+		ArrayList<URL> pages = new ArrayList<>(validators.size());
+		for (String url : validators.keySet()) {
+			try {
+				pages.add(new URL(url));
+			} catch (MalformedURLException e) {
+				System.out.println("~ Issue with URL ~");
+			}
+		}
+		return pages;
+	}
+
+	/**
+	 * Returns the validators saved for a page.
+	 *
+	 * @param url
+	 *            location of the page
+	 * @return validators or null if the page has not been finished
+	 */
+	public synchronized Validators getValidators(String url) {
+		return validators.get(url);
+	}
+
+	/**
+	 * Saves the validators of a finished page, replacing any previous ones.
+	 *
+	 * @param url
+	 *            location of the page
+	 * @param page
+	 *            validators of the page
+	 */
+	public synchronized void setValidators(String url, Validators page) {
+		validators.put(url, page);
+	}
+
+	/**
+	 * Appends an indexed page to the log. The record is only guaranteed to be
+	 * on disk after the next {@link #save(URLSeenSet, List, int)}.
+	 *
+	 * @param url
+	 *            location of the page
+	 * @param words
+	 *            words of the page, in order
+	 * @throws IOException
+	 */
+	public synchronized void record(String url, String[] words) throws IOException {
+		if (documents == null) {
+			documents = openLog();
+		}
+
+		String text = String.join(" ", words);
+		documents.write(url + "\t" + text.length() + "\t" + text + "\n");
+	}
+
+	/**
+	 * Saves the crawl state. Flushes the log of indexed pages, then replaces
+	 * the seen set and frontier files.
+	 *
+	 * @param urls
+	 *            every URL seen so far
+	 * @param unfinished
+	 *            every page waiting or in progress
+	 * @param scheduled
+	 *            number of pages scheduled against the crawl limit
+	 * @throws IOException
+	 */
+	public synchronized void save(URLSeenSet urls, List<URL> unfinished, int scheduled) throws IOException {
+		Files.createDirectories(directory);
+
+		if (documents != null) {
+			documents.flush();
+		}
+
+		Path seen = directory.resolve(SEEN + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(seen)))) {
+			out.writeInt(scheduled);
+			urls.write(out);
+		}
+
+		ArrayList<String> lines = new ArrayList<>(unfinished.size());
+		for (URL url : unfinished) {
+			lines.add(url.toString());
+		}
+		Path frontier = directory.resolve(FRONTIER + ".tmp");
+		Files.write(frontier, lines, StandardCharsets.UTF_8);
+
+		lines.clear();
+		for (Map.Entry<String, Validators> entry : validators.entrySet()) {
+			Validators page = entry.getValue();
+			lines.add(entry.getKey() + "\t" + blank(page.etag) + "\t" + blank(page.lastModified) + "\t"
+					+ blank(page.hash));
+		}
+		Path saved = directory.resolve(VALIDATORS + ".tmp");
+		Files.write(saved, lines, StandardCharsets.UTF_8);
+
+		Files.move(saved, directory.resolve(VALIDATORS), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		Files.move(seen, directory.resolve(SEEN), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		Files.move(frontier, directory.resolve(FRONTIER), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Closes the log of indexed pages.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (documents != null) {
+			documents.close();
+			documents = null;
+		}
+	}
+
+	/**
+	 * Returns null for an empty field read from the validators file.
+	 */
+	private static String empty(String field) {
+		return field.isEmpty() ? null : field;
+	}
+
+	/**
+	 * Returns an empty field for a null validator.
+	 */
+	private static String blank(String value) {
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * Opens the log of indexed pages for appending, first terminating any
+	 * record torn by a crash so that new records start on their own line.
+	 *
+	 * @return writer appending to the log
+	 * @throws IOException
+	 */
+	private BufferedWriter openLog() throws IOException {
+		Files.createDirectories(directory);
+		Path log = directory.resolve(DOCUMENTS);
+
+		boolean torn = false;
+		if (Files.isRegularFile(log) && Files.size(log) > 0) {
+			try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "r")) {
+				file.seek(file.length() - 1);
+				torn = file.read() != '\n';
+			}
+		}
+
+		BufferedWriter writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+		if (torn) {
+			writer.write("\n");
+		}
+		return writer;
+	}
+
+	/**
+	 * The values used to tell whether a page changed since it was last
+	 * crawled: the ETag and Last-Modified headers sent by the server, and a
+	 * hash of the body for servers that send neither.
+	 */
+	public static class Validators {
+		private final String etag;
+		private final String lastModified;
+		private final String hash;
+
+		/**
+		 * Creates validators for a page. Any value may be null.
+		 *
+		 * @param etag
+		 * @param lastModified
+		 * @param hash
+		 */
+		public Validators(String etag, String lastModified, String hash) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Returns the validators of a fetched page.
+		 *
+		 * @param response
+		 *            response the page was fetched with
+		 * @return validators of the page
+		 */
+		public static Validators of(HTTPResponse response) {
+			return new Validators(response.getHeader("ETag"), response.getHeader("Last-Modified"),
+					hash(response.getBody()));
+		}
+
+		/**
+		 * Returns the hash of a page body used to detect unchanged pages.
+		 *
+		 * @param body
+		 * @return hash of the body
+		 */
+		public static String hash(String body) {
+			return Long.toHexString(URLSeenSet.fingerprint(body));
+		}
+
+		/**
+		 * Returns the header fields that make a GET request conditional on the
+		 * page having changed.
+		 *
+		 * @return header field names mapped to values
+		 */
+		public Map<String, String> conditionalHeaders() {
+			HashMap<String, String> headers = new HashMap<>();
+			if (etag != null) {
+				headers.put("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				headers.put("If-Modified-Since", lastModified);
+			}
+			return headers;
+		}
+
+		/**
+		 * Tests whether two fetches of a page returned the same body.
+		 *
+		 * @param other
+		 *            validators of the other fetch
+		 * @return true if both bodies have the same hash
+		 */
+		public boolean sameContent(Validators other) {
+			return hash != null && hash.equals(other.hash);
+		}
+	}
+}
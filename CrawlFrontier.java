@@ -0,0 +1,213 @@
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The crawl frontier: pages waiting to be fetched, organized into one queue
+ * per host. Hosts with waiting pages are served round-robin, and a host is only
+ * handed out when it has fewer than the configured number of fetches in
+ * progress and its politeness delay has passed. This keeps every worker busy
+ * across many hosts without letting any single host absorb the whole pool.
+ */
+public class CrawlFrontier {
+
+	/** The default number of simultaneous fetches allowed per host. */
+	public static final int DEFAULT_PER_HOST = 2;
+
+	/** The default delay in milliseconds between fetches from one host. */
+	public static final long DEFAULT_DELAY = 0;
+
+	private final HashMap<String, HostQueue> hosts;
+	private final ArrayDeque<HostQueue> ready;
+	private final HashMap<String, URL> inProgress;
+	private final int perHost;
+	private final long delay;
+	private final int maxActive;
+	private int queued;
+	private int fetching;
+	private int pending;
+
+	/**
+	 * Initializes an empty frontier.
+	 *
+	 * @param perHost
+	 *            maximum number of simultaneous fetches from one host
+	 * @param delay
+	 *            minimum milliseconds between starting fetches from one host
+	 * @param maxActive
+	 *            maximum number of fetches in progress across all hosts
+	 *            (usually the number of worker threads)
+	 */
+	public CrawlFrontier(int perHost, long delay, int maxActive) {
+		this.hosts = new HashMap<>();
+		this.ready = new ArrayDeque<>();
+		this.inProgress = new HashMap<>();
+		this.perHost = Math.max(1, perHost);
+		this.delay = Math.max(0, delay);
+		this.maxActive = Math.max(1, maxActive);
+		queued = 0;
+		fetching = 0;
+		pending = 0;
+	}
+
+	/**
+	 * Returns the key used to group URLs by host. The port is included so that
+	 * different servers on the same machine are treated as different hosts.
+	 *
+	 * @param url
+	 * @return host key
+	 */
+	public static String hostKey(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Adds a page to the end of its host's queue.
+	 *
+	 * @param url
+	 *            page to fetch
+	 */
+	public synchronized void add(URL url) {
+		String key = hostKey(url);
+		HostQueue host = hosts.get(key);
+		if (host == null) {
+			host = new HostQueue();
+			hosts.put(key, host);
+		}
+
+		if (host.urls.isEmpty()) {
+			ready.addLast(host);
+		}
+		host.urls.addLast(url);
+		queued++;
+		this.notifyAll();
+	}
+
+	/**
+	 * Waits until some host is allowed to be fetched from, and returns its next
+	 * page. The page counts against its host until {@link #fetched(URL)} is
+	 * called, and is considered in progress until {@link #finished(URL)} is
+	 * called.
+	 *
+	 * @return next page to fetch, or null if the frontier is empty and no
+	 *         pages are in progress (so no new pages can be discovered)
+	 */
+	public synchronized URL take() {
+		while (queued > 0 || pending > 0) {
+			long wait = 0;
+
+			if (queued > 0 && fetching < maxActive) {
+				long now = System.currentTimeMillis();
+				Iterator<HostQueue> iterator = ready.iterator();
+
+				while (iterator.hasNext()) {
+					HostQueue host = iterator.next();
+					if (host.active >= perHost) {
+						continue;
+					}
+					if (host.nextFetch > now) {
+						wait = (wait == 0) ? host.nextFetch - now : Math.min(wait, host.nextFetch - now);
+						continue;
+					}
+
+					// rotate the host to the back so hosts are served in turn
+					iterator.remove();
+					URL url = host.urls.removeFirst();
+					if (!host.urls.isEmpty()) {
+						ready.addLast(host);
+					}
+
+					host.active++;
+					host.nextFetch = now + delay;
+					queued--;
+					fetching++;
+					pending++;
+					inProgress.put(url.toString(), url);
+					return url;
+				}
+			}
+
+			try {
+				this.wait(wait);
+			} catch (InterruptedException e) {
+				System.err.println("Warning: Crawl frontier interrupted.");
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Marks the fetch of a page returned by {@link #take()} as complete,
+	 * freeing a slot for its host.
+	 *
+	 * @param url
+	 *            page that was fetched
+	 */
+	public synchronized void fetched(URL url) {
+		HostQueue host = hosts.get(hostKey(url));
+		if (host != null) {
+			host.active--;
+		}
+		fetching--;
+		this.notifyAll();
+	}
+
+	/**
+	 * Marks a page returned by {@link #take()} as no longer in progress, once
+	 * all of its links have been added to the frontier and it has been added
+	 * to the index (or skipped).
+	 *
+	 * @param url
+	 *            page that finished
+	 */
+	public synchronized void finished(URL url) {
+		inProgress.remove(url.toString());
+		pending--;
+		this.notifyAll();
+	}
+
+	/**
+	 * Returns every page that has not finished yet: pages in progress first,
+	 * followed by the pages still waiting in each host queue. Adding these
+	 * back to an empty frontier resumes the crawl without losing any page.
+	 *
+	 * @return unfinished pages
+	 */
+	public synchronized List<URL> snapshot() {
+		ArrayList<URL> unfinished = new ArrayList<>(inProgress.values());
+		for (HostQueue host : hosts.values()) {
+			unfinished.addAll(host.urls);
+		}
+		return unfinished;
+	}
+
+	/**
+	 * Returns the number of pages waiting to be fetched.
+	 *
+	 * @return number of queued pages
+	 */
+	public synchronized int size() {
+		return queued;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CrawlFrontier[hosts=" + hosts.size() + ", queued=" + queued + ", fetching=" + fetching + ", pending="
+				+ pending + "]";
+	}
+
+	/**
+	 * Pages waiting for a single host, along with its politeness state.
+	 */
+	private static class HostQueue {
+		private final ArrayDeque<URL> urls = new ArrayDeque<>();
+		private int active = 0;
+		private long nextFetch = 0;
+	}
+}
@@ -0,0 +1,202 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches host name lookups for the crawler, so that fetching a page does not
+ * wait on DNS for a host that was already resolved. Failed lookups are cached
+ * too (for a shorter time), so unreachable hosts fail fast. Hosts can be
+ * resolved ahead of time in the background as soon as links to them are
+ * discovered. A host is only looked up by one thread at a time; any other
+ * thread resolving it waits for that lookup instead of starting its own.
+ */
+public class DNSCache {
+
+	/** The default number of seconds to cache a successful lookup. */
+	public static final int DEFAULT_TTL = 300;
+
+	/** The default number of seconds to cache a failed lookup. */
+	public static final int DEFAULT_NEGATIVE_TTL = 30;
+
+	private final ConcurrentHashMap<String, Entry> entries;
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> pending;
+	private final WorkQueue resolvers;
+	private final long ttl;
+	private final long negativeTTL;
+
+	/**
+	 * Creates a cache with the default time-to-live values.
+	 *
+	 * @param resolvers
+	 *            work queue used to resolve hosts in the background
+	 */
+	public DNSCache(WorkQueue resolvers) {
+		this(resolvers, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param resolvers
+	 *            work queue used to resolve hosts in the background
+	 * @param ttl
+	 *            seconds to cache a successful lookup
+	 * @param negativeTTL
+	 *            seconds to cache a failed lookup
+	 */
+	public DNSCache(WorkQueue resolvers, int ttl, int negativeTTL) {
+		this.entries = new ConcurrentHashMap<>();
+		this.pending = new ConcurrentHashMap<>();
+		this.resolvers = resolvers;
+		this.ttl = ttl * 1000L;
+		this.negativeTTL = negativeTTL * 1000L;
+	}
+
+	/**
+	 * Returns the address of the host, looking it up only if it is not cached
+	 * or its cached entry has expired.
+	 *
+	 * @param host
+	 *            host name or literal address
+	 * @return address of the host
+	 * @throws UnknownHostException
+	 *             if the host could not be resolved (now or recently)
+	 */
+	public InetAddress resolve(String host) throws UnknownHostException {
+		String key = host.toLowerCase();
+		Entry entry = entries.get(key);
+
+		if (entry == null || entry.expired()) {
+			CompletableFuture<Entry> future = new CompletableFuture<>();
+			CompletableFuture<Entry> running = pending.putIfAbsent(key, future);
+
+			// waits for a prefetch or another thread already looking it up
+			entry = (running == null) ? lookup(key, future) : running.join();
+			if (entry == null) {
+				entry = lookup(key);
+			}
+		}
+		if (entry.address == null) {
+			throw new UnknownHostException(host);
+		}
+		return entry.address;
+	}
+
+	/**
+	 * Resolves the host in the background if it is not cached, so that a later
+	 * {@link #resolve(String)} does not have to wait.
+	 *
+	 * @param host
+	 *            host name or literal address
+	 */
+	public void prefetch(String host) {
+		String key = host.toLowerCase();
+		Entry entry = entries.get(key);
+
+		if (entry == null || entry.expired()) {
+			CompletableFuture<Entry> future = new CompletableFuture<>();
+			if (pending.putIfAbsent(key, future) == null) {
+				resolvers.execute(new PrefetchMinion(key, future));
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of hosts cached, including expired entries.
+	 *
+	 * @return number of hosts
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "DNSCache[size=" + size() + "]";
+	}
+
+	/**
+	 * Looks up the host and caches the result.
+	 *
+	 * @param key
+	 *            lowercase host name
+	 * @return new cache entry
+	 */
+	private Entry lookup(String key) {
+		Entry entry;
+		try {
+			entry = new Entry(InetAddress.getByName(key), System.currentTimeMillis() + ttl);
+		} catch (UnknownHostException e) {
+			entry = new Entry(null, System.currentTimeMillis() + negativeTTL);
+		}
+		entries.put(key, entry);
+		return entry;
+	}
+
+	/**
+	 * Looks up the host and caches the result, and completes the pending
+	 * lookup other threads may be waiting on. If the lookup fails unexpectedly
+	 * the pending lookup is completed with null, so waiting threads look the
+	 * host up themselves.
+	 *
+	 * @param key
+	 *            lowercase host name
+	 * @param future
+	 *            pending lookup of the host
+	 * @return new cache entry
+	 */
+	private Entry lookup(String key, CompletableFuture<Entry> future) {
+		Entry entry = null;
+		try {
+			entry = lookup(key);
+			return entry;
+		} finally {
+			pending.remove(key, future);
+			future.complete(entry);
+		}
+	}
+
+	/**
+	 * Resolves a host in the background. If the task is dropped without
+	 * running, threads waiting on it look the host up themselves.
+	 */
+	private class PrefetchMinion implements Runnable, WorkQueue.Discardable {
+		private final String key;
+		private final CompletableFuture<Entry> future;
+
+		public PrefetchMinion(String key, CompletableFuture<Entry> future) {
+			this.key = key;
+			this.future = future;
+		}
+
+		@Override
+		public void run() {
+			lookup(key, future);
+		}
+
+		@Override
+		public void discard() {
+			pending.remove(key, future);
+			future.complete(null);
+		}
+	}
+
+	/**
+	 * A cached lookup: the address, or null if the lookup failed, and when it
+	 * expires.
+	 */
+	private static class Entry {
+		private final InetAddress address;
+		private final long expires;
+
+		public Entry(InetAddress address, long expires) {
+			this.address = address;
+			this.expires = expires;
+		}
+
+		public boolean expired() {
+			return System.currentTimeMillis() >= expires;
+		}
+	}
+}
@@ -1,10 +1,15 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.util.concurrent.CancellationException;
 
 public class Driver {
 
@@ -18,7 +23,7 @@ public class Driver {
 		Path inputPath;
 		Path outputPath = null;
 		ArgumentMap argMap = new ArgumentMap(args);
-		HashSet<URL> urls = new HashSet<URL>();
+		URLSeenSet urls = new URLSeenSet();
 
 		if (argMap.numFlags() == 0) {
 			return;
@@ -30,7 +35,14 @@ public class Driver {
 
 		if (argMap.hasFlag("-threads")) {
 			InvertedIndexThreadSafe threadSafe = new InvertedIndexThreadSafe();
-			queue = new WorkQueue(argMap.getPositiveInteger("-threads", 5));
+			int threads = argMap.getPositiveInteger("-threads", 5);
+			if (argMap.hasFlag("-capacity")) {
+				// producers such as the directory traversal wait for room instead of queueing every task
+				queue = new WorkQueue(threads, argMap.getPositiveInteger("-capacity", threads * 64),
+						WorkQueue.Policy.BLOCK);
+			} else {
+				queue = new WorkQueue(threads);
+			}
 
 			index = threadSafe;
 			query = new QueryHelperMultithreaded(queue, threadSafe);
@@ -67,13 +79,38 @@ public class Driver {
 		}
 
 		if (argMap.hasFlag("-url")) {
-			queue = new WorkQueue(5);
-			WebCrawler crawler = new WebCrawler(queue, index, urls);
+			if (queue == null) {
+				queue = new WorkQueue(5);
+			}
+			int backlog = argMap.getPositiveInteger("-backlog", WebCrawler.DEFAULT_CAPACITY);
+			WorkQueue parsers = new WorkQueue(
+					argMap.getPositiveInteger("-parsers", Runtime.getRuntime().availableProcessors()), backlog,
+					WorkQueue.Policy.BLOCK);
+			WorkQueue indexers = new WorkQueue(1, backlog, WorkQueue.Policy.BLOCK);
+			WorkQueue resolvers = new WorkQueue(2);
+
+			CrawlFrontier frontier = new CrawlFrontier(
+					argMap.getPositiveInteger("-perhost", CrawlFrontier.DEFAULT_PER_HOST),
+					argMap.getPositiveInteger("-delay", (int) CrawlFrontier.DEFAULT_DELAY), queue.size());
+			WebCrawler crawler = new WebCrawler(queue, parsers, indexers, index, urls, frontier);
+			crawler.setDNSCache(new DNSCache(resolvers));
+			if (argMap.hasFlag("-dedup")) {
+				crawler.setDuplicateDetection(new SimHash(argMap.getPositiveInteger("-dedup", SimHash.DEFAULT_DISTANCE)));
+			}
+			if (argMap.hasFlag("-checkpoint")) {
+				crawler.setCheckpoint(new CrawlCheckpoint(Paths.get(argMap.getString("-checkpoint", "checkpoint"))),
+						argMap.getPositiveInteger("-interval", CrawlCheckpoint.DEFAULT_INTERVAL));
+				crawler.setRecrawl(argMap.hasFlag("-recrawl"));
+			}
 			try {
 				crawler.crawl(new URL(argMap.getString("-url")), argMap.getPositiveInteger("-limit", 50));
 
 			} catch (MalformedURLException e) {
 				System.out.println("~ Invalid URL please try again ~");
+			} finally {
+				parsers.shutdown();
+				indexers.shutdown();
+				resolvers.shutdown();
 			}
 		}
 
@@ -89,17 +126,61 @@ public class Driver {
 			}
 		}
 
+		if (argMap.hasFlag("-batch")) {
+			// without -threads the index is not thread-safe, and any queue belongs to the crawler
+			query = new QueryHelperBatch(argMap.hasFlag("-threads") ? queue : null, index);
+		}
+
+		if (argMap.hasFlag("-timeout")) {
+			query.setTimeout(argMap.getPositiveInteger("-timeout", 0));
+		}
+
+		if (argMap.hasFlag("-fuzzy")) {
+			query.setFuzzy(Math.min(argMap.getPositiveInteger("-fuzzy", 1), InvertedIndex.MAX_DISTANCE));
+		}
+
+		QueryCache cache = null;
+		if (argMap.hasFlag("-cache")) {
+			cache = new QueryCache(argMap.getPositiveInteger("-cache", QueryCache.DEFAULT_CAPACITY));
+			query.setCache(cache);
+		}
+
+		// -explain is another name for -profile
+		String profile = argMap.hasFlag("-profile") ? "-profile" : argMap.hasFlag("-explain") ? "-explain" : null;
+		query.setProfiling(profile != null && argMap.hasFlag("-query"));
+
+		boolean stream = argMap.hasFlag("-stream") && argMap.hasFlag("-query");
+
 		if (argMap.hasFlag("-query")) {
 			try {
-				query.parseQuery(Paths.get(argMap.getString("-query")), argMap.hasFlag("-exact"));
+				if (stream) {
+					// results are written as they are found instead of by -results below
+					String resultsPath = argMap.getString("-results", "results.json");
+					System.out.println("Results Path = " + resultsPath);
+					query.streamQuery(Paths.get(argMap.getString("-query")), argMap.hasFlag("-exact"),
+							Paths.get(resultsPath));
+				} else {
+					query.parseQuery(Paths.get(argMap.getString("-query")), argMap.hasFlag("-exact"));
+				}
+				if (argMap.hasFlag("-batch")) {
+					System.out.println(query);
+				}
+				if (cache != null) {
+					System.out.println(cache);
+				}
+				if (!query.getTruncated().isEmpty()) {
+					System.out.println("Truncated " + query.getTruncated().size() + " queries that ran out of time");
+				}
 			} catch (IOException e) {
 				System.out.println("~ Issue with either input/output path, make sure to enter paths correctly ~");
 			} catch (InvalidPathException | NullPointerException e) {
 				System.out.println("Invalid query path, please try again");
+			} catch (CancellationException e) {
+				System.out.println("~ Searches were dropped by a full work queue ~");
 			}
 		}
 
-		if (argMap.hasFlag("-results")) {
+		if (argMap.hasFlag("-results") && !stream) {
 			String resultsPath = argMap.getString("-results", "results.json");
 			try {
 				System.out.println("Results Path = " + resultsPath);
@@ -111,8 +192,89 @@ public class Driver {
 			}
 		}
 
+		if (profile != null && argMap.hasFlag("-query")) {
+			String profilePath = argMap.getString(profile, "profile.json");
+			try {
+				System.out.println("Profile Path = " + profilePath);
+				JSONWriter.asProfiles(query.getProfiles(), Paths.get(profilePath));
+				query.setProfiling(false);
+			} catch (IOException e) {
+				System.out.println("~ Issue with either input/output path, make sure to enter paths correctly ~");
+			} catch (InvalidPathException e) {
+				System.out.println("~ Invalid profile path, please try again ~");
+			}
+		}
+
+		InvertedIndexThreadSafe threadSafe = null;
+		if (argMap.hasFlag("-ndjson") || argMap.hasFlag("-port")) {
+			// one thread-safe view, so every concurrent search and suggestion shares its lock
+			threadSafe = (index instanceof InvertedIndexThreadSafe) ? (InvertedIndexThreadSafe) index
+					: new InvertedIndexThreadSafe(index);
+		}
+
+		if (argMap.hasFlag("-ndjson")) {
+			if (queue == null) {
+				queue = new WorkQueue();
+			}
+			QueryStream lines = new QueryStream(concurrent(query, threadSafe, queue, cache), queue);
+			try {
+				if (argMap.hasValue("-ndjson")) {
+					lines.serve(argMap.getPositiveInteger("-ndjson", 0), argMap.hasFlag("-exact"));
+				} else {
+					lines.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+							new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)),
+							argMap.hasFlag("-exact"));
+				}
+			} catch (IOException | RuntimeException e) {
+				System.out.println("~ Unable to stream queries ~");
+			}
+		}
+
+		if (argMap.hasFlag("-port")) {
+			if (queue == null) {
+				queue = new WorkQueue();
+			}
+			try {
+				SearchServer server = new SearchServer(argMap.getPositiveInteger("-port", SearchServer.DEFAULT_PORT),
+						threadSafe, concurrent(query, threadSafe, queue, cache), queue);
+				server.start();
+				System.out.println("Serving searches on port " + server.getPort());
+				// the server and its work queue keep running until the process is stopped
+				return;
+			} catch (IOException e) {
+				System.out.println("~ Unable to start the search server ~");
+			}
+		}
+
 		if (queue != null) {
 			queue.shutdown();
 		}
 	}
+
+	/**
+	 * Returns a helper that can search many queries at once, set up like the
+	 * given helper, for requests that are searched concurrently.
+	 *
+	 * @param query
+	 *            helper used so far
+	 * @param index
+	 *            thread-safe index to search
+	 * @param queue
+	 *            work queue to search on
+	 * @param cache
+	 *            cache of search results, or null to always search
+	 * @return the helper if it is multithreaded, or a new multithreaded helper
+	 */
+	private static QueryHelperMultithreaded concurrent(QueryHelperInterface query, InvertedIndexThreadSafe index,
+			WorkQueue queue, QueryCache cache) {
+		if (query instanceof QueryHelperMultithreaded) {
+			return (QueryHelperMultithreaded) query;
+		}
+
+		QueryHelperMultithreaded concurrent = new QueryHelperMultithreaded(queue, index);
+		concurrent.setCache(cache);
+		concurrent.setTimeout(query.getTimeout());
+		concurrent.setFuzzy(query.getFuzzy());
+		return concurrent;
+	}
 }
\ No newline at end of file
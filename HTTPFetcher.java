@@ -1,15 +1,28 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * An example class designed to make fetching the results of different HTTP
@@ -76,13 +89,328 @@ public class HTTPFetcher {
 	 * @see {@link HTTP}
 	 */
 	public static String craftHTTPRequest(URL url, HTTP type) {
+		return craftHTTPRequest(url, type, Collections.emptyMap());
+	}
+
+	/**
+	 * Crafts a minimal HTTP/1.1 request for the provided method, including
+	 * additional header fields such as those used for conditional requests.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param type
+	 *            - HTTP method to use
+	 * @param headers
+	 *            - additional header field names mapped to values
+	 *
+	 * @return HTTP/1.1 request
+	 *
+	 * @see {@link HTTP}
+	 */
+	public static String craftHTTPRequest(URL url, HTTP type, Map<String, String> headers) {
 		String host = url.getHost();
 		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
 
 		// The specification is specific about where to use a new line
 		// versus a carriage return!
-		return String.format("%s %s %s\r\n" + "Host: %s\r\n" + "Connection: close\r\n" + "\r\n", type.name(), resource,
-				version, host);
+		StringBuilder request = new StringBuilder();
+		request.append(String.format("%s %s %s\r\n" + "Host: %s\r\n" + "Connection: close\r\n", type.name(),
+				resource, version, host));
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		request.append("\r\n");
+		return request.toString();
+	}
+
+	/**
+	 * Fetches the URL with a GET request including the additional header
+	 * fields, and returns the status, headers and body of the response. The
+	 * request advertises gzip and deflate support; compressed and chunked
+	 * bodies are decoded as they are read, and the body is decoded using the
+	 * charset given in the Content-Type header (UTF-8 if none is given).
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param headers
+	 *            - additional header field names mapped to values, such as
+	 *            If-None-Match or If-Modified-Since
+	 * @return response from the web server
+	 *
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public static HTTPResponse fetch(URL url, Map<String, String> headers) throws UnknownHostException, IOException {
+		return fetch(url, headers, null);
+	}
+
+	/**
+	 * Fetches the URL as {@link #fetch(URL, Map)} does, resolving the host
+	 * through the DNS cache.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param headers
+	 *            - additional header field names mapped to values
+	 * @param dns
+	 *            - cache used to resolve the host, or null to resolve it
+	 *            normally
+	 * @return response from the web server
+	 *
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public static HTTPResponse fetch(URL url, Map<String, String> headers, DNSCache dns)
+			throws UnknownHostException, IOException {
+		HashMap<String, String> fields = new HashMap<>(headers);
+		fields.put("Accept-Encoding", "gzip, deflate");
+		String request = craftHTTPRequest(url, HTTP.GET, fields);
+		int port = url.getPort() < 0 ? DEFAULT_PORT : url.getPort();
+
+		try (Socket socket = connect(url.getHost(), port, dns);
+				InputStream input = new BufferedInputStream(socket.getInputStream());
+				OutputStream output = socket.getOutputStream();) {
+			output.write(request.getBytes(StandardCharsets.ISO_8859_1));
+			output.flush();
+
+			ArrayList<String> lines = new ArrayList<>();
+			String line;
+			while ((line = readHeaderLine(input)) != null && !line.isEmpty()) {
+				lines.add(line);
+			}
+
+			HTTPResponse head = new HTTPResponse(-1, parseHeaders(lines), "");
+			int status = parseStatus(head.getHeader("Status"));
+			if (status == HTTPResponse.NOT_MODIFIED || status == 204) {
+				return new HTTPResponse(status, head.getHeaders(), "");
+			}
+
+			InputStream body = input;
+			String transfer = head.getHeader("Transfer-Encoding");
+			if (transfer != null && transfer.toLowerCase().contains("chunked")) {
+				body = new ChunkedInputStream(body);
+			}
+
+			String encoding = head.getHeader("Content-Encoding");
+			if (encoding != null) {
+				encoding = encoding.trim().toLowerCase();
+				if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+					body = new GZIPInputStream(body);
+				} else if (encoding.equals("deflate")) {
+					body = inflate(body);
+				}
+			}
+
+			return new HTTPResponse(status, head.getHeaders(), read(body, charset(head.getHeader("Content-Type"))));
+		}
+	}
+
+	/**
+	 * Opens a socket to the host, resolving it through the DNS cache if one is
+	 * given.
+	 *
+	 * @param host
+	 *            - host name
+	 * @param port
+	 *            - port to connect to
+	 * @param dns
+	 *            - cache used to resolve the host, or null
+	 * @return connected socket
+	 * @throws IOException
+	 */
+	private static Socket connect(String host, int port, DNSCache dns) throws IOException {
+		return (dns == null) ? new Socket(host, port) : new Socket(dns.resolve(host), port);
+	}
+
+	/**
+	 * Reads a header line terminated by CRLF (or a bare LF) from the input,
+	 * without reading any further.
+	 *
+	 * @param input
+	 *            - input positioned at the start of a line
+	 * @return the line without its terminator, or null at the end of input
+	 * @throws IOException
+	 */
+	private static String readHeaderLine(InputStream input) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		while ((b = input.read()) != -1 && b != '\n') {
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		if (b == -1 && line.size() == 0) {
+			return null;
+		}
+		return line.toString("ISO-8859-1");
+	}
+
+	/**
+	 * Returns the charset named by a Content-Type header value, falling back
+	 * to UTF-8 if none is named or it is not supported.
+	 *
+	 * @param type
+	 *            - value of the Content-Type header, or null
+	 * @return charset to decode the body with
+	 */
+	public static Charset charset(String type) {
+		if (type != null) {
+			for (String parameter : type.split(";")) {
+				String[] pair = parameter.trim().split("=", 2);
+				if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+					try {
+						return Charset.forName(pair[1].trim().replace("\"", ""));
+					} catch (IllegalArgumentException e) {
+						break;
+					}
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Decodes a deflate body. Servers disagree on whether "deflate" means a
+	 * zlib stream or a raw deflate stream, so the first two bytes are checked
+	 * for a zlib header.
+	 *
+	 * @param input
+	 *            - deflate body
+	 * @return decompressed body
+	 * @throws IOException
+	 */
+	private static InputStream inflate(InputStream input) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(input, 2);
+		int first = pushback.read();
+		int second = pushback.read();
+
+		if (second != -1) {
+			pushback.unread(second);
+		}
+		if (first != -1) {
+			pushback.unread(first);
+		}
+
+		boolean zlib = first != -1 && second != -1 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+		return new InflaterInputStream(pushback, new Inflater(!zlib));
+	}
+
+	/**
+	 * Reads the entire input as text.
+	 *
+	 * @param input
+	 *            - input to read
+	 * @param charset
+	 *            - charset of the text
+	 * @return text read
+	 * @throws IOException
+	 */
+	private static String read(InputStream input, Charset charset) throws IOException {
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[8192];
+
+		try (Reader reader = new InputStreamReader(input, charset)) {
+			int count;
+			while ((count = reader.read(buffer)) != -1) {
+				text.append(buffer, 0, count);
+			}
+		} catch (EOFException e) {
+			// keeps whatever was decoded from a truncated body
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Decodes a body sent with chunked transfer encoding, stopping after the
+	 * last chunk.
+	 */
+	private static class ChunkedInputStream extends InputStream {
+		private final InputStream input;
+		private int remaining;
+		private boolean finished;
+
+		public ChunkedInputStream(InputStream input) {
+			this.input = input;
+			this.remaining = 0;
+			this.finished = false;
+		}
+
+		/**
+		 * Reads the size of the next chunk, skipping the end of the previous
+		 * chunk. Marks the stream finished after the last chunk.
+		 */
+		private boolean nextChunk() throws IOException {
+			if (finished) {
+				return false;
+			}
+
+			String line = readHeaderLine(input);
+			if (line != null && line.isEmpty()) {
+				line = readHeaderLine(input);
+			}
+			if (line == null) {
+				finished = true;
+				return false;
+			}
+
+			try {
+				remaining = Integer.parseInt(line.split(";", 2)[0].trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid chunk size: " + line);
+			}
+
+			if (remaining == 0) {
+				finished = true;
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0 && !nextChunk()) {
+				return -1;
+			}
+			int b = input.read();
+			if (b != -1) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (remaining == 0 && !nextChunk()) {
+				return -1;
+			}
+			int count = input.read(buffer, offset, Math.min(length, remaining));
+			if (count > 0) {
+				remaining -= count;
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Returns the status code from the status stored by
+	 * {@link #parseHeaders(List)}, such as 200 from "200 OK".
+	 *
+	 * @param status
+	 *            - status code and reason phrase
+	 * @return status code, or -1 if it could not be parsed
+	 */
+	public static int parseStatus(String status) {
+		if (status == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(status.split("\\s+", 2)[0]);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
 	}
 
 	/**
@@ -135,27 +463,8 @@ public class HTTPFetcher {
 	 * @throws IOException
 	 */
 	public static String fetchHTML(String url) throws UnknownHostException, MalformedURLException, IOException {
-		URL target = new URL(url);
-		String request = craftHTTPRequest(target, HTTP.GET);
-		List<String> lines = fetchLines(target, request);
-
-		int start = 0;
-		int end = lines.size();
-
-		// Determines start of HTML versus headers.
-		while (!lines.get(start).trim().isEmpty() && start < end) {
-			start++;
-		}
-
-		// Double-check this is an HTML file.
-		Map<String, String> fields = parseHeaders(lines.subList(0, start + 1));
-		String type = fields.get("Content-Type");
-
-		if (type != null && type.toLowerCase().contains("html")) {
-			return String.join(System.lineSeparator(), lines.subList(start + 1, end));
-		}
-
-		return null;
+		HTTPResponse response = fetch(new URL(url), Collections.emptyMap());
+		return response.isHTML() ? response.getBody() : null;
 	}
 
 	/**
@@ -171,8 +480,9 @@ public class HTTPFetcher {
 	public static Map<String, String> parseHeaders(List<String> headers) {
 		Map<String, String> fields = new HashMap<>();
 
-		if (headers.size() > 0 && headers.get(0).startsWith(version)) {
-			fields.put("Status", headers.get(0).substring(version.length()).trim());
+		if (headers.size() > 0 && headers.get(0).startsWith("HTTP/")) {
+			String[] status = headers.get(0).split("\\s+", 2);
+			fields.put("Status", status.length == 2 ? status[1].trim() : "");
 
 			for (String line : headers.subList(1, headers.size())) {
 				String[] pair = line.split(":", 2);
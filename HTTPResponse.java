@@ -0,0 +1,96 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The status, headers and body of a response fetched by {@link HTTPFetcher}.
+ * Header names are case-insensitive.
+ */
+public class HTTPResponse {
+
+	/** Status code of a response to a conditional request for an unchanged page. */
+	public static final int NOT_MODIFIED = 304;
+
+	private final int status;
+	private final TreeMap<String, String> headers;
+	private final String body;
+
+	/**
+	 * Creates a response.
+	 *
+	 * @param status
+	 *            status code, or -1 if the status line could not be parsed
+	 * @param headers
+	 *            header field names mapped to values
+	 * @param body
+	 *            response body, or an empty string if there was none
+	 */
+	public HTTPResponse(int status, Map<String, String> headers, String body) {
+		this.status = status;
+		this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		this.headers.putAll(headers);
+		this.body = body;
+	}
+
+	/**
+	 * Returns the status code.
+	 *
+	 * @return status code, or -1 if the status line could not be parsed
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the value of a header field.
+	 *
+	 * @param name
+	 *            field name, in any case
+	 * @return field value or null if the field was not sent
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	/**
+	 * Returns every header field.
+	 *
+	 * @return unmodifiable map of field names to values
+	 */
+	public Map<String, String> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Returns the body.
+	 *
+	 * @return response body, or an empty string if there was none
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Tests whether the response is an unchanged page.
+	 *
+	 * @return true if the server answered 304 Not Modified
+	 */
+	public boolean isNotModified() {
+		return status == NOT_MODIFIED;
+	}
+
+	/**
+	 * Tests whether the body is HTML according to the Content-Type header.
+	 *
+	 * @return true if the body is HTML
+	 */
+	public boolean isHTML() {
+		String type = getHeader("Content-Type");
+		return type != null && type.toLowerCase().contains("html");
+	}
+
+	@Override
+	public String toString() {
+		return "HTTPResponse[status=" + status + ", headers=" + headers + "]";
+	}
+}
@@ -1,9 +1,15 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class InvertedIndex {
 	/**
@@ -12,15 +18,67 @@ public class InvertedIndex {
 	 */
 	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
 
+	/**
+	 * Incremented whenever the index changes, so results computed from an
+	 * older generation can be recognized as stale. Changes are serialized by
+	 * the caller (or the write lock of a thread-safe index). Shared with every
+	 * index created from this one, since they change the same words.
+	 */
+	private final AtomicLong generation;
+
+	/** The largest edit distance allowed by fuzzy searches. */
+	public static final int MAX_DISTANCE = 2;
+
+	/** Lookups of short prefixes, which match too many words to merge each time. */
+	private final PrefixCache prefixes;
+
+	/**
+	 * Document ID of each filename, used to accumulate search results in
+	 * arrays. IDs are never reused, even if the filename is removed.
+	 */
+	private final HashMap<String, Integer> documents;
+
+	/**
+	 * Most frequent completions of every prefix, built on the first lookup and
+	 * kept current as files are added. Cleared when files are removed, and
+	 * locked while the trie is built.
+	 */
+	private final AtomicReference<TermTrie> suggestions;
+
 	/**
 	 * Initializes the inverted index.
 	 */
 	public InvertedIndex() {
 		index = new TreeMap<>();
+		generation = new AtomicLong();
+		prefixes = new PrefixCache();
+		documents = new HashMap<>();
+		suggestions = new AtomicReference<>();
 	}
 
+	/**
+	 * Initializes an index backed by the same words as another, along with its
+	 * generation and caches, so a change made through either is seen by both.
+	 *
+	 * @param other
+	 *            index to share
+	 */
 	public InvertedIndex(InvertedIndex other) {
 		this.index = other.index;
+		this.generation = other.generation;
+		this.prefixes = other.prefixes;
+		this.documents = other.documents;
+		this.suggestions = other.suggestions;
+	}
+
+	/**
+	 * Returns the generation of the index, which changes whenever words are
+	 * added or removed.
+	 *
+	 * @return current generation
+	 */
+	public long generation() {
+		return generation.get();
 	}
 
 	/**
@@ -39,15 +97,30 @@ public class InvertedIndex {
 	 * @param position
 	 */
 	private void addHelper(String word, String filename, Integer position) {
+		document(filename);
 		if (index.get(word) == null) {
 			index.put(word, new TreeMap<>());
 		}
 		if (index.get(word).get(filename) == null) {
 			index.get(word).put(filename, new TreeSet<>());
+			counted(word);
 		}
 		index.get(word).get(filename).add(position);
 	}
 
+	/**
+	 * Raises the number of files of a word in the trie, if one was built,
+	 * after the word was added to another file.
+	 *
+	 * @param word
+	 */
+	private void counted(String word) {
+		TermTrie trie = suggestions.get();
+		if (trie != null) {
+			trie.update(word, index.get(word).size());
+		}
+	}
+
 	/**
 	 * Adds word, filename, and position to inverted index
 	 *
@@ -57,6 +130,7 @@ public class InvertedIndex {
 	 */
 	public void add(String word, String filename, Integer position) {
 		addHelper(word, filename, position);
+		generation.incrementAndGet();
 	}
 
 	/**
@@ -83,6 +157,7 @@ public class InvertedIndex {
 		for (String word : words) {
 			addHelper(word, filename, start++);
 		}
+		generation.incrementAndGet();
 	}
 
 	/**
@@ -94,10 +169,15 @@ public class InvertedIndex {
 	 * @param start
 	 */
 	public void addAll(InvertedIndex other) {
+		for (String filename : other.documents.keySet()) {
+			document(filename);
+		}
 		for (String word : other.index.keySet()) {
 			if (this.index.containsKey(word) == false) {
 				this.index.put(word, other.index.get(word));
+				counted(word);
 			} else {
+				int files = this.index.get(word).size();
 				for (String path : other.index.get(word).keySet()) {
 					if (this.index.get(word).containsKey(path) == false) {
 						this.index.get(word).put(path, other.index.get(word).get(path));
@@ -106,8 +186,41 @@ public class InvertedIndex {
 					}
 
 				}
+				if (this.index.get(word).size() != files) {
+					counted(word);
+				}
+			}
+		}
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Removes every position recorded for the filename, and any word left
+	 * without filenames. Used to replace a document whose contents changed.
+	 * Visits every word in the index.
+	 *
+	 * @param filename
+	 * @return true if the filename was found in the index
+	 */
+	public boolean remove(String filename) {
+		boolean removed = false;
+		Iterator<TreeMap<String, TreeSet<Integer>>> iterator = index.values().iterator();
+
+		while (iterator.hasNext()) {
+			TreeMap<String, TreeSet<Integer>> fileMap = iterator.next();
+			if (fileMap.remove(filename) != null) {
+				removed = true;
+				if (fileMap.isEmpty()) {
+					iterator.remove();
+				}
 			}
 		}
+		if (removed) {
+			// the trie cannot lower the number of files of a word, so it is built again
+			suggestions.set(null);
+			generation.incrementAndGet();
+		}
+		return removed;
 	}
 
 	/**
@@ -179,26 +292,226 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Takes in a partial query and returns an array of all the full words in
-	 * the index
+	 * Returns the document ID of a filename, assigning the next ID if the
+	 * filename is new
 	 * 
-	 * @param query
-	 * @return
+	 * @param filename
+	 * @return document ID
 	 */
-	private void searchFilenames(TreeMap<String, TreeSet<Integer>> fileMap,
-			TreeMap<String, SearchResult> searchResultMap, ArrayList<SearchResult> searchResults, String queryWord) {
-		for (String filename : fileMap.keySet()) {
-			int newFrequency = count(queryWord, filename);
-			int newPosition = index.get(queryWord).get(filename).first();
+	private int document(String filename) {
+		Integer document = documents.get(filename);
+		if (document == null) {
+			document = documents.size();
+			documents.put(filename, document);
+		}
+		return document;
+	}
 
-			if (searchResultMap.containsKey(filename)) {
-				searchResultMap.get(filename).update(newFrequency, newPosition);
-			} else {
-				SearchResult searchResult = new SearchResult(newFrequency, newPosition, filename);
-				searchResultMap.put(filename, searchResult);
-				searchResults.add(searchResult);
+	/**
+	 * Adds the files of every word matching the query word to the accumulator,
+	 * stopping early if the budget runs out.
+	 * 
+	 * @param queryWord
+	 * @param exact
+	 * @param budget
+	 * @param accumulator
+	 */
+	private void accumulate(String queryWord, boolean exact, QueryBudget budget, ResultAccumulator accumulator) {
+		QueryProfile profile = QueryProfile.current();
+		for (Map.Entry<String, TreeMap<String, TreeSet<Integer>>> entry : index.tailMap(queryWord, true).entrySet()) {
+			String word = entry.getKey();
+			if (exact ? !word.equals(queryWord) : !word.startsWith(queryWord)) {
+				break;
+			}
+			if (QueryBudget.expired(budget)) {
+				break;
+			}
+			if (profile != null) {
+				profile.expanded(word, entry.getValue().size());
+			}
+			for (Map.Entry<String, TreeSet<Integer>> file : entry.getValue().entrySet()) {
+				TreeSet<Integer> positions = file.getValue();
+				accumulator.add(documents.get(file.getKey()), positions.size(), positions.first(), file.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Returns the words starting with the prefix that appear in the most
+	 * files, most frequent first. The completions of every prefix are built
+	 * into a {@link TermTrie} the first time they are needed, and kept
+	 * current as files are added, so suggestions never touch the postings.
+	 * 
+	 * @param prefix
+	 *            cleaned prefix, which may be empty
+	 * @param limit
+	 *            maximum number of words, at most {@link TermTrie#DEFAULT_SIZE}
+	 * @return words mapped to the number of files they appear in, in order
+	 */
+	public LinkedHashMap<String, Integer> suggest(String prefix, int limit) {
+		return terms().suggest(prefix, limit);
+	}
+
+	/**
+	 * Returns the trie of the words of the index, building it if there is
+	 * none. Adding files keeps a built trie current, so it is only built again
+	 * after files are removed. Only one thread builds the trie; readers
+	 * arriving meanwhile wait for it and share it instead of each building
+	 * their own.
+	 * 
+	 * @return current trie
+	 */
+	private TermTrie terms() {
+		TermTrie trie = suggestions.get();
+		if (trie != null) {
+			return trie;
+		}
+
+		synchronized (suggestions) {
+			// built by another reader while this one waited
+			trie = suggestions.get();
+			if (trie == null) {
+				trie = new TermTrie(TermTrie.DEFAULT_SIZE);
+				for (Map.Entry<String, TreeMap<String, TreeSet<Integer>>> entry : index.entrySet()) {
+					trie.add(entry.getKey(), entry.getValue().size());
+				}
+				suggestions.set(trie);
+			}
+		}
+		return trie;
+	}
+
+	/**
+	 * Looks up a single query word, summarizing every file it matches as a
+	 * search result. For a partial lookup, the matches of every word starting
+	 * with the query word are combined. Summaries of several query words can be
+	 * combined with {@link #combine(List)} to get the results of a query.
+	 * 
+	 * @param queryWord
+	 * @param exact
+	 *            true to match the word only, false to match it as a prefix
+	 * @return search results keyed by filename, which must not be modified
+	 */
+	public TreeMap<String, SearchResult> lookup(String queryWord, boolean exact) {
+		return lookup(queryWord, exact, null);
+	}
+
+	/**
+	 * Looks up a single query word within a time budget. If the budget runs
+	 * out, the matches of the words expanded so far are returned and the
+	 * budget is marked as truncated.
+	 * 
+	 * @param queryWord
+	 * @param exact
+	 *            true to match the word only, false to match it as a prefix
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return search results keyed by filename, which must not be modified
+	 */
+	public TreeMap<String, SearchResult> lookup(String queryWord, boolean exact, QueryBudget budget) {
+		return lookupHelper(queryWord, exact, budget);
+	}
+
+	/**
+	 * Looks up a single query word. Partial lookups of short prefixes are
+	 * answered from the prefix cache while the index is unchanged.
+	 *
+	 * @param queryWord
+	 * @param exact
+	 * @param budget
+	 * @return search results keyed by filename
+	 */
+	private TreeMap<String, SearchResult> lookupHelper(String queryWord, boolean exact, QueryBudget budget) {
+		if (exact || !PrefixCache.accepts(queryWord)) {
+			return summarize(queryWord, exact, budget);
+		}
+
+		long current = generation.get();
+		TreeMap<String, SearchResult> summary = prefixes.get(queryWord, current);
+		QueryProfile profile = QueryProfile.current();
+		if (summary != null && profile != null) {
+			profile.prefixHit();
+			profile.touched(summary.size());
+		}
+		if (summary == null) {
+			summary = summarize(queryWord, exact, budget);
+			// an incomplete lookup must not be reused
+			if (!QueryBudget.isTruncated(budget)) {
+				prefixes.put(queryWord, current, summary);
+			}
+		}
+		return summary;
+	}
+
+	/**
+	 * Merges the files of every word matching the query word into one search
+	 * result per file, stopping early if the budget runs out.
+	 *
+	 * @param queryWord
+	 * @param exact
+	 * @param budget
+	 * @return search results keyed by filename
+	 */
+	private TreeMap<String, SearchResult> summarize(String queryWord, boolean exact, QueryBudget budget) {
+		TreeMap<String, SearchResult> summary = new TreeMap<String, SearchResult>();
+		QueryProfile profile = QueryProfile.current();
+		long start = (profile != null) ? System.nanoTime() : 0;
+
+		for (String word : index.tailMap(queryWord, true).keySet()) {
+			if (exact ? !word.equals(queryWord) : !word.startsWith(queryWord)) {
+				break;
+			}
+			if (QueryBudget.expired(budget)) {
+				break;
+			}
+			if (profile != null) {
+				profile.expanded(word, index.get(word).size());
+			}
+			for (Map.Entry<String, TreeSet<Integer>> file : index.get(word).entrySet()) {
+				TreeSet<Integer> positions = file.getValue();
+				SearchResult result = summary.get(file.getKey());
+				if (result == null) {
+					summary.put(file.getKey(), new SearchResult(positions.size(), positions.first(), file.getKey(),
+							documents.get(file.getKey())));
+				} else {
+					result.update(positions.size(), positions.first());
+				}
+			}
+		}
+		if (profile != null) {
+			profile.addLookup(System.nanoTime() - start);
+		}
+		return summary;
+	}
+
+	/**
+	 * Combines the lookups of each query word into the sorted results of the
+	 * whole query. The lookups are not modified, so they may be shared between
+	 * queries. Results are accumulated by document ID, so every lookup must
+	 * come from the same index.
+	 * 
+	 * @param lookups
+	 *            summaries returned by {@link #lookup(String, boolean)}, one
+	 *            per query word
+	 * @return sorted search results
+	 * @throws IllegalArgumentException
+	 *             if a result has no document ID
+	 */
+	public static ArrayList<SearchResult> combine(List<? extends Map<String, SearchResult>> lookups) {
+		ResultAccumulator accumulator = ResultAccumulator.get();
+		QueryProfile profile = QueryProfile.current();
+		long start = (profile != null) ? System.nanoTime() : 0;
+
+		for (Map<String, SearchResult> lookup : lookups) {
+			merge(lookup, accumulator);
+			if (profile != null) {
+				profile.touched(lookup.size());
 			}
 		}
+		if (profile != null) {
+			profile.addMerge(System.nanoTime() - start);
+		}
+		return results(accumulator, profile);
 	}
 
 	/**
@@ -208,40 +521,173 @@ public class InvertedIndex {
 	 * @return
 	 */
 	public ArrayList<SearchResult> exactSearch(String[] queryWords) {
-		ArrayList<SearchResult> searchResults = new ArrayList<SearchResult>();
-		TreeMap<String, SearchResult> searchResultMap = new TreeMap<String, SearchResult>();
+		return exactSearch(queryWords, null);
+	}
+
+	/**
+	 * Takes in an array of query words and searches the index for exact
+	 * matches, returning the matches of the words searched so far if the
+	 * budget runs out
+	 * 
+	 * @param queryWords
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return
+	 */
+	public ArrayList<SearchResult> exactSearch(String[] queryWords, QueryBudget budget) {
+		ResultAccumulator accumulator = ResultAccumulator.get();
+		QueryProfile profile = QueryProfile.current();
+		long start = (profile != null) ? System.nanoTime() : 0;
+
 		for (String queryWord : queryWords) {
-			if (contains(queryWord)) {
-				TreeMap<String, TreeSet<Integer>> fileMap = index.get(queryWord);
-				searchFilenames(fileMap, searchResultMap, searchResults, queryWord);
+			if (QueryBudget.expired(budget)) {
+				break;
 			}
+			TreeMap<String, TreeSet<Integer>> fileMap = index.get(queryWord);
+			if (fileMap != null) {
+				if (profile != null) {
+					profile.expanded(queryWord, fileMap.size());
+				}
+				for (Map.Entry<String, TreeSet<Integer>> file : fileMap.entrySet()) {
+					TreeSet<Integer> positions = file.getValue();
+					accumulator.add(documents.get(file.getKey()), positions.size(), positions.first(), file.getKey());
+				}
+			}
+		}
+		if (profile != null) {
+			profile.addLookup(System.nanoTime() - start);
 		}
-		Collections.sort(searchResults);
-		return searchResults;
+		return results(accumulator, profile);
 	}
 
 	/**
 	 * Takes in an array of query words and searches the index for partial
-	 * matches
+	 * matches. Short prefixes are answered from the prefix cache, and other
+	 * words are expanded straight into the result accumulator.
 	 * 
 	 * @param queryWords
 	 * @return
 	 */
 	public ArrayList<SearchResult> partialSearch(String[] queryWords) {
-		ArrayList<SearchResult> searchResults = new ArrayList<SearchResult>();
-		TreeMap<String, SearchResult> searchResultMap = new TreeMap<String, SearchResult>();
+		return partialSearch(queryWords, null);
+	}
+
+	/**
+	 * Takes in an array of query words and searches the index for partial
+	 * matches, returning the matches of the words expanded so far if the
+	 * budget runs out
+	 * 
+	 * @param queryWords
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return
+	 */
+	public ArrayList<SearchResult> partialSearch(String[] queryWords, QueryBudget budget) {
+		ResultAccumulator accumulator = ResultAccumulator.get();
+		QueryProfile profile = QueryProfile.current();
 
 		for (String queryWord : queryWords) {
-			for (String word : index.tailMap(queryWord, true).keySet()) {
-				if (!word.startsWith(queryWord)) {
-					break;
+			if (PrefixCache.accepts(queryWord)) {
+				TreeMap<String, SearchResult> lookup = lookupHelper(queryWord, false, budget);
+				long start = (profile != null) ? System.nanoTime() : 0;
+				merge(lookup, accumulator);
+				if (profile != null) {
+					profile.addMerge(System.nanoTime() - start);
+				}
+			} else {
+				long start = (profile != null) ? System.nanoTime() : 0;
+				accumulate(queryWord, false, budget, accumulator);
+				if (profile != null) {
+					profile.addLookup(System.nanoTime() - start);
 				}
-				TreeMap<String, TreeSet<Integer>> fileMap = index.get(word);
-				searchFilenames(fileMap, searchResultMap, searchResults, word);
+			}
+		}
+		return results(accumulator, profile);
+	}
 
+	/**
+	 * Looks up the words of the index within the edit distance of a query
+	 * word, summarizing every file they appear in as a search result. The
+	 * summaries of several query words can be combined with
+	 * {@link #combine(List)}.
+	 * 
+	 * @param queryWord
+	 * @param distance
+	 *            maximum number of edits, at most {@link #MAX_DISTANCE}
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return search results keyed by filename
+	 */
+	public TreeMap<String, SearchResult> fuzzyLookup(String queryWord, int distance, QueryBudget budget) {
+		TreeMap<String, SearchResult> summary = new TreeMap<String, SearchResult>();
+		for (String word : terms().within(queryWord, Math.min(distance, MAX_DISTANCE))) {
+			if (QueryBudget.expired(budget)) {
+				break;
+			}
+			for (Map.Entry<String, TreeSet<Integer>> file : index.get(word).entrySet()) {
+				TreeSet<Integer> positions = file.getValue();
+				SearchResult result = summary.get(file.getKey());
+				if (result == null) {
+					summary.put(file.getKey(), new SearchResult(positions.size(), positions.first(), file.getKey(),
+							documents.get(file.getKey())));
+				} else {
+					result.update(positions.size(), positions.first());
+				}
 			}
 		}
-		Collections.sort(searchResults);
-		return searchResults;
+		return summary;
+	}
+
+	/**
+	 * Takes in an array of query words and searches the index for the words
+	 * within the edit distance of each, merging their files like a partial
+	 * search. Matching words are found by walking the trie of the index
+	 * instead of comparing the query word with every word.
+	 * 
+	 * @param queryWords
+	 * @param distance
+	 *            maximum number of edits, at most {@link #MAX_DISTANCE}
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return sorted search results
+	 */
+	public ArrayList<SearchResult> fuzzySearch(String[] queryWords, int distance, QueryBudget budget) {
+		ResultAccumulator accumulator = ResultAccumulator.get();
+		QueryProfile profile = QueryProfile.current();
+		long start = (profile != null) ? System.nanoTime() : 0;
+
+		for (String queryWord : queryWords) {
+			for (String word : terms().within(queryWord, Math.min(distance, MAX_DISTANCE))) {
+				accumulate(word, true, budget, accumulator);
+			}
+		}
+		if (profile != null) {
+			profile.addLookup(System.nanoTime() - start);
+		}
+		return results(accumulator, profile);
+	}
+
+	/**
+	 * Adds every result of a lookup to the accumulator.
+	 */
+	private static void merge(Map<String, SearchResult> lookup, ResultAccumulator accumulator) {
+		for (SearchResult result : lookup.values()) {
+			accumulator.add(result);
+		}
+	}
+
+	/**
+	 * Sorts the accumulated results, recording the sort time in the profile if
+	 * there is one. Merge time is recorded where lookups are merged, since
+	 * searches that walk postings straight into the accumulator merge nothing.
+	 */
+	private static ArrayList<SearchResult> results(ResultAccumulator accumulator, QueryProfile profile) {
+		if (profile == null) {
+			return accumulator.results();
+		}
+		long start = System.nanoTime();
+		ArrayList<SearchResult> results = accumulator.results();
+		profile.addSort(System.nanoTime() - start);
+		return results;
 	}
 }
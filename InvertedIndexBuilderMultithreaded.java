@@ -2,16 +2,21 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import org.apache.logging.log4j.LogManager;
 
 public class InvertedIndexBuilderMultithreaded {
-	private final WorkQueue minions;
+	private final WorkQueue.TaskGroup minions;
 	private final InvertedIndexThreadSafe indexThreaded;
+	private final ArrayList<InvertedIndex> merged;
 	public static final org.apache.logging.log4j.Logger logger = LogManager.getLogger();
 
 	/**
-	 * Creates inverted index builder attached to the given work queue
+	 * Creates inverted index builder attached to the given work queue. Files
+	 * are parsed as their own task group, so other work sharing the queue is
+	 * not waited for.
 	 * 
 	 * @param workQueue
 	 * @param indexThreaded
@@ -19,12 +24,14 @@ public class InvertedIndexBuilderMultithreaded {
 	 */
 	public InvertedIndexBuilderMultithreaded(WorkQueue workQueue, InvertedIndexThreadSafe indexThreaded,
 			Path startPath) {
-		minions = workQueue;
+		minions = workQueue.newGroup();
 		this.indexThreaded = indexThreaded;
+		this.merged = new ArrayList<>();
 	}
 
 	/**
-	 * Calls traverseHelper method before calling minions.finish()
+	 * Calls traverseHelper method, then adds the few merged local indexes left
+	 * to the index once every file is parsed.
 	 * 
 	 * @param path
 	 * @throws IOException
@@ -32,6 +39,41 @@ public class InvertedIndexBuilderMultithreaded {
 	public void traverseDirectories(Path path) throws IOException {
 		traverseHelper(path);
 		minions.finish();
+
+		synchronized (merged) {
+			for (InvertedIndex local : merged) {
+				if (local != null) {
+					indexThreaded.addAll(local);
+				}
+			}
+			merged.clear();
+		}
+	}
+
+	/**
+	 * Merges the local index of a file as soon as it is parsed, pairing it with
+	 * a waiting index of the same level like the carries of a binary counter.
+	 * Merges stay balanced, and only one index per level is held at a time
+	 * instead of the index of every file until all are parsed.
+	 * 
+	 * @param local
+	 */
+	private void merge(InvertedIndex local) {
+		for (int level = 0;; level++) {
+			InvertedIndex other;
+			synchronized (merged) {
+				if (level == merged.size()) {
+					merged.add(null);
+				}
+				other = merged.get(level);
+				merged.set(level, (other == null) ? local : null);
+			}
+			if (other == null) {
+				return;
+			}
+			other.addAll(local);
+			local = other;
+		}
 	}
 
 	/**
@@ -50,39 +92,36 @@ public class InvertedIndexBuilderMultithreaded {
 			}
 
 		} else if (path.toString().toLowerCase().endsWith(".html") || path.toString().endsWith(".htm")) {
-			minions.execute(new DirectoryMinion(path, indexThreaded));
+			minions.submit(new DirectoryMinion(path)).thenAccept(this::merge);
 		}
 		logger.debug("Minion finished {}", path);
 	}
 
 	/**
-	 * Handles per-directory parsing. If a subdirectory is encountered, a new
-	 * {@link DirectoryMinion} is created to handle that subdirectory.
+	 * Parses a single file into its own local index, which is merged with the
+	 * others as soon as it is parsed.
 	 */
-	private class DirectoryMinion implements Runnable {
+	private class DirectoryMinion implements Callable<InvertedIndex> {
 
 		private Path directory;
-		private InvertedIndexThreadSafe indexThreaded;
 
-		public DirectoryMinion(Path directory, InvertedIndexThreadSafe indexThreaded) {
+		public DirectoryMinion(Path directory) {
 			logger.debug("Minion created for {}", directory);
 			this.directory = directory;
-			this.indexThreaded = indexThreaded;
-
 		}
 
 		@Override
-		public void run() {
+		public InvertedIndex call() {
+			InvertedIndex local = new InvertedIndex();
 			try {
-				InvertedIndex local = new InvertedIndex();
 				InvertedIndexBuilder.parseHTMLFile(directory, local);
-				indexThreaded.addAll(local);
 
 			} catch (IOException e) {
 				logger.debug(e);
 
 			}
 			logger.debug("Minion finished {}", directory);
+			return local;
 		}
 
 	}
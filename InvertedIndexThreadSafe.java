@@ -1,6 +1,8 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
 
 public class InvertedIndexThreadSafe extends InvertedIndex {
 	private ReadWriteLock lock;
@@ -85,6 +87,23 @@ public class InvertedIndexThreadSafe extends InvertedIndex {
 
 	}
 
+	/**
+	 * Removes every position recorded for the filename, and any word left
+	 * without filenames.
+	 *
+	 * @param filename
+	 * @return true if the filename was found in the index
+	 */
+	@Override
+	public boolean remove(String filename) {
+		lock.lockReadWrite();
+		try {
+			return super.remove(filename);
+		} finally {
+			lock.unlockReadWrite();
+		}
+	}
+
 	/**
 	 * Writes inverted index as JSON to specified path
 	 * 
@@ -97,7 +116,7 @@ public class InvertedIndexThreadSafe extends InvertedIndex {
 		try {
 			super.asJSON(path);
 		} finally {
-			lock.unlockReadWrite();
+			lock.unlockReadOnly();
 		}
 	}
 
@@ -171,17 +190,98 @@ public class InvertedIndexThreadSafe extends InvertedIndex {
 		}
 	}
 
+	/**
+	 * Looks up a single query word, summarizing every file it matches as a
+	 * search result.
+	 * 
+	 * @param queryWord
+	 * @param exact
+	 *            true to match the word only, false to match it as a prefix
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return search results keyed by filename
+	 */
+	@Override
+	public TreeMap<String, SearchResult> lookup(String queryWord, boolean exact, QueryBudget budget) {
+		lockForSearch();
+		try {
+			return super.lookup(queryWord, exact, budget);
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Returns the most frequent words starting with the prefix. The first call
+	 * after the index changes rebuilds the completions under the read lock.
+	 * 
+	 * @param prefix
+	 * @param limit
+	 * @return words mapped to the number of files they appear in, in order
+	 */
+	@Override
+	public LinkedHashMap<String, Integer> suggest(String prefix, int limit) {
+		lock.lockReadOnly();
+		try {
+			return super.suggest(prefix, limit);
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Looks up the words within the edit distance of a query word, summarizing
+	 * every file they appear in as a search result.
+	 * 
+	 * @param queryWord
+	 * @param distance
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return search results keyed by filename
+	 */
+	@Override
+	public TreeMap<String, SearchResult> fuzzyLookup(String queryWord, int distance, QueryBudget budget) {
+		lockForSearch();
+		try {
+			return super.fuzzyLookup(queryWord, distance, budget);
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Takes in an array of query words and searches the index for the words
+	 * within the edit distance of each
+	 * 
+	 * @param queryWords
+	 * @param distance
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return
+	 */
+	@Override
+	public ArrayList<SearchResult> fuzzySearch(String[] queryWords, int distance, QueryBudget budget) {
+		lockForSearch();
+		try {
+			return super.fuzzySearch(queryWords, distance, budget);
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
 	/**
 	 * Takes in an array of query words and searches the index for exact matches
 	 * 
 	 * @param queryWords
+	 * @param budget
+	 *            time budget, or null for no limit
 	 * @return
 	 */
 	@Override
-	public ArrayList<SearchResult> exactSearch(String[] queryWords) {
-		lock.lockReadOnly();
+	public ArrayList<SearchResult> exactSearch(String[] queryWords, QueryBudget budget) {
+		lockForSearch();
 		try {
-			return super.exactSearch(queryWords);
+			return super.exactSearch(queryWords, budget);
 		} finally {
 			lock.unlockReadOnly();
 		}
@@ -192,16 +292,32 @@ public class InvertedIndexThreadSafe extends InvertedIndex {
 	 * matches
 	 * 
 	 * @param queryWords
+	 * @param budget
+	 *            time budget, or null for no limit
 	 * @return
 	 */
 	@Override
-	public ArrayList<SearchResult> partialSearch(String[] queryWords) {
-		lock.lockReadOnly();
+	public ArrayList<SearchResult> partialSearch(String[] queryWords, QueryBudget budget) {
+		lockForSearch();
 		try {
-			return super.partialSearch(queryWords);
+			return super.partialSearch(queryWords, budget);
 		} finally {
 			lock.unlockReadOnly();
 		}
 	}
 
+	/**
+	 * Acquires the read lock for a search, recording the time spent waiting
+	 * for it in the profile of the query if it is profiled.
+	 */
+	private void lockForSearch() {
+		QueryProfile profile = QueryProfile.current();
+		if (profile == null) {
+			lock.lockReadOnly();
+			return;
+		}
+		long start = System.nanoTime();
+		lock.lockReadOnly();
+		profile.addLockWait(System.nanoTime() - start);
+	}
 }
@@ -6,6 +6,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -155,7 +158,7 @@ public class JSONWriter {
 		}
 	}
 
-	private static void asSearchArray(BufferedWriter writer, SearchResult searchResult) throws IOException {
+	private static void asSearchArray(Writer writer, SearchResult searchResult) throws IOException {
 		writer.write(indent(3) + "{" + "\n");
 		writer.write(indent(4) + "\"" + "where" + "\"" + ": " + "\"" + searchResult.getPath() + "\"" + "," + "\n");
 		writer.write(indent(4) + "\"" + "count" + "\"" + ": " + searchResult.getFrequency() + "," + "\n");
@@ -165,41 +168,173 @@ public class JSONWriter {
 
 	/**
 	 * Writes the set of elements as a JSON object with a nested arrayList to
-	 * the path using UTF8.
+	 * the path using UTF8. Queries are written in the order of the map, which
+	 * may be any sorted map including a concurrent one.
 	 *
 	 * @param index
 	 * @param path
 	 * @throws IOException
 	 */
-	public static void asSearchResults(TreeMap<String, ArrayList<SearchResult>> queryMap, Path path)
+	public static void asSearchResults(SortedMap<String, ArrayList<SearchResult>> queryMap, Path path)
 			throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write("[" + "\n");
+
+			boolean first = true;
+			for (Map.Entry<String, ArrayList<SearchResult>> entry : queryMap.entrySet()) {
+				if (!first) {
+					writer.write("," + "\n");
+				}
+				first = false;
+				asSearchResult(entry.getKey(), entry.getValue(), writer);
+			}
+			if (!first) {
+				writer.write("\n");
+			}
+			writer.write("]");
+		}
+	}
+
+	/**
+	 * Writes the results of one query as a JSON object, without a trailing
+	 * comma or newline. Used to write results one query at a time.
+	 *
+	 * @param query
+	 * @param list
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void asSearchResult(String query, List<SearchResult> list, Writer writer) throws IOException {
 		String queries = "\"" + "queries" + "\"" + ": ";
 		String results = "\"" + "results" + "\"" + ": ";
 
+		writer.write(indent(1) + "{" + "\n" + indent(2) + queries + "\"" + query + "\"" + "," + "\n");
+		writer.write(indent(2) + results + "[" + "\n");
+		if (!list.isEmpty()) {
+			if (list.size() > 1) {
+				for (SearchResult searchResult : list.subList(0, list.size() - 1)) {
+					asSearchArray(writer, searchResult);
+					writer.write("," + "\n");
+				}
+			}
+			asSearchArray(writer, list.get(list.size() - 1));
+			writer.write("\n");
+		}
+		writer.write(indent(2) + "]" + "\n" + indent(1) + "}");
+	}
+
+	/**
+	 * Writes the results of one query as a JSON object on a single line,
+	 * without a trailing newline. Used for newline-delimited JSON output.
+	 *
+	 * @param query
+	 * @param list
+	 * @param truncated
+	 *            true to mark the results as truncated
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void asSearchResultLine(String query, List<SearchResult> list, boolean truncated, Writer writer)
+			throws IOException {
+		writer.write("{\"queries\":\"" + query + "\",\"results\":[");
+		for (int i = 0; i < list.size(); i++) {
+			SearchResult searchResult = list.get(i);
+			if (i > 0) {
+				writer.write(",");
+			}
+			writer.write("{\"where\":\"" + searchResult.getPath() + "\",\"count\":" + searchResult.getFrequency()
+					+ ",\"index\":" + searchResult.getInitialPosition() + "}");
+		}
+		writer.write("]");
+		if (truncated) {
+			writer.write(",\"truncated\":true");
+		}
+		writer.write("}");
+	}
+
+	/**
+	 * Writes the profile of each query as a JSON array to the path using UTF8,
+	 * in the order of the map. Times are in microseconds.
+	 *
+	 * @param profiles
+	 *            profiles keyed by query
+	 * @param path
+	 * @throws IOException
+	 */
+	public static void asProfiles(SortedMap<String, QueryProfile> profiles, Path path) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
 			writer.write("[" + "\n");
 
-			for (String query : queryMap.keySet()) {
-				writer.write(indent(1) + "{" + "\n" + indent(2) + queries + "\"" + query + "\"" + "," + "\n");
-				writer.write(indent(2) + results + "[" + "\n");
-				if (!queryMap.get(query).isEmpty()) {
-					if (queryMap.get(query).size() > 1) {
-						for (SearchResult searchResult : queryMap.get(query).subList(0,
-								queryMap.get(query).size() - 1)) {
-							asSearchArray(writer, searchResult);
-							writer.write("," + "\n");
-						}
-					}
-					asSearchArray(writer, queryMap.get(query).get(queryMap.get(query).size() - 1));
-					writer.write("\n");
-				}
-				writer.write(indent(2) + "]" + "\n" + indent(1) + "}");
-				if (!query.equals(queryMap.lastKey())) {
-					writer.write(",");
+			boolean first = true;
+			for (QueryProfile profile : profiles.values()) {
+				if (!first) {
+					writer.write("," + "\n");
 				}
+				first = false;
+				asProfile(profile, writer);
+			}
+			if (!first) {
 				writer.write("\n");
 			}
 			writer.write("]");
 		}
 	}
+
+	/**
+	 * Writes the profile of one query as a JSON object, without a trailing
+	 * comma or newline.
+	 *
+	 * @param profile
+	 * @param writer
+	 * @throws IOException
+	 */
+	private static void asProfile(QueryProfile profile, Writer writer) throws IOException {
+		writer.write(indent(1) + "{" + "\n");
+		writer.write(indent(2) + quote("queries") + ": " + quote(profile.getQuery()) + "," + "\n");
+		writer.write(indent(2) + quote("exact") + ": " + profile.isExact() + "," + "\n");
+		writer.write(indent(2) + quote("cached") + ": " + profile.isCached() + "," + "\n");
+		writer.write(indent(2) + quote("prefixHits") + ": " + profile.getPrefixHits() + "," + "\n");
+		writer.write(indent(2) + quote("truncated") + ": " + profile.isTruncated() + "," + "\n");
+		writer.write(indent(2) + quote("expanded") + ": " + profile.getExpanded() + "," + "\n");
+		writer.write(indent(2) + quote("postings") + ": " + profile.getPostings() + "," + "\n");
+		writer.write(indent(2) + quote("parse") + ": " + profile.getParse() / 1000 + "," + "\n");
+		writer.write(indent(2) + quote("lookup") + ": " + profile.getLookup() / 1000 + "," + "\n");
+		writer.write(indent(2) + quote("merge") + ": " + profile.getMerge() / 1000 + "," + "\n");
+		writer.write(indent(2) + quote("sort") + ": " + profile.getSort() / 1000 + "," + "\n");
+		writer.write(indent(2) + quote("lockWait") + ": " + profile.getLockWait() / 1000 + "," + "\n");
+		writer.write(indent(2) + quote("total") + ": " + (profile.getParse() + profile.getTotal()) / 1000 + "," + "\n");
+		writer.write(indent(2) + quote("terms") + ": {");
+
+		boolean first = true;
+		for (Map.Entry<String, Integer> term : profile.getTerms().entrySet()) {
+			writer.write((first ? "" : ",") + "\n" + indent(3) + quote(term.getKey()) + ": " + term.getValue());
+			first = false;
+		}
+		writer.write((first ? "" : "\n" + indent(2)) + "}" + "\n");
+		writer.write(indent(1) + "}");
+	}
+
+	/**
+	 * Writes the completions of a prefix as a JSON object on a single line,
+	 * without a trailing newline.
+	 *
+	 * @param prefix
+	 * @param suggestions
+	 *            words mapped to the number of files they appear in, in order
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void asSuggestions(String prefix, Map<String, Integer> suggestions, Writer writer)
+			throws IOException {
+		writer.write("{\"prefix\":\"" + prefix + "\",\"suggestions\":[");
+		boolean first = true;
+		for (Map.Entry<String, Integer> suggestion : suggestions.entrySet()) {
+			if (!first) {
+				writer.write(",");
+			}
+			first = false;
+			writer.write("{\"word\":\"" + suggestion.getKey() + "\",\"count\":" + suggestion.getValue() + "}");
+		}
+		writer.write("]}");
+	}
 }
@@ -0,0 +1,131 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded cache of the lookups of short prefixes, used by
+ * {@link InvertedIndex} for partial searches. A short prefix such as "a" can
+ * match tens of thousands of words, so merging the files of every matching word
+ * is far more work than looking the merged summary up again. The least
+ * recently used prefix is evicted when the cache is full.
+ *
+ * Each entry is tagged with the generation of the index it was computed from,
+ * and is ignored once the index has changed.
+ */
+public class PrefixCache {
+
+	/** The longest prefix that is cached. */
+	public static final int MAX_LENGTH = 3;
+
+	/** The default maximum number of cached prefixes. */
+	public static final int DEFAULT_CAPACITY = 512;
+
+	private final LinkedHashMap<String, Entry> entries;
+	private final int capacity;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Initializes an empty cache with the default capacity.
+	 *
+	 * @see #DEFAULT_CAPACITY
+	 */
+	public PrefixCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity
+	 *            maximum number of cached prefixes
+	 */
+	public PrefixCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Tests whether lookups of the prefix are worth caching.
+	 *
+	 * @param prefix
+	 * @return true if the prefix is short enough to be cached
+	 */
+	public static boolean accepts(String prefix) {
+		return prefix.length() <= MAX_LENGTH;
+	}
+
+	/**
+	 * Returns the cached lookup of the prefix if it was computed from the given
+	 * generation of the index.
+	 *
+	 * @param prefix
+	 * @param generation
+	 *            current generation of the index
+	 * @return search results keyed by filename, which must not be modified, or
+	 *         null if not cached or stale
+	 */
+	public synchronized TreeMap<String, SearchResult> get(String prefix, long generation) {
+		Entry entry = entries.get(prefix);
+		if (entry == null || entry.generation != generation) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.summary;
+	}
+
+	/**
+	 * Caches the lookup of the prefix, evicting the least recently used
+	 * prefixes if the cache is full.
+	 *
+	 * @param prefix
+	 * @param generation
+	 *            generation of the index the lookup was computed from
+	 * @param summary
+	 *            search results keyed by filename
+	 */
+	public synchronized void put(String prefix, long generation, TreeMap<String, SearchResult> summary) {
+		Entry previous = entries.get(prefix);
+		if (previous != null && previous.generation > generation) {
+			return;
+		}
+		entries.put(prefix, new Entry(generation, summary));
+
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (entries.size() > capacity && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of cached prefixes.
+	 *
+	 * @return number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "PrefixCache[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + "]";
+	}
+
+	/**
+	 * A cached lookup and the generation of the index it came from.
+	 */
+	private static class Entry {
+		private final long generation;
+		private final TreeMap<String, SearchResult> summary;
+
+		public Entry(long generation, TreeMap<String, SearchResult> summary) {
+			this.generation = generation;
+			this.summary = summary;
+		}
+	}
+}
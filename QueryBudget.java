@@ -0,0 +1,103 @@
+/**
+ * A time budget for searching a single query. Searches check the budget as
+ * they go and stop early once it has run out, returning the results found so
+ * far, so one expensive query cannot hold up a worker for long. A budget can
+ * also be cancelled from another thread, which stops the search at its next
+ * check.
+ */
+public class QueryBudget {
+
+	private final long deadline;
+	private volatile boolean cancelled;
+	private volatile boolean truncated;
+
+	/**
+	 * Starts a budget that runs out after the given time.
+	 *
+	 * @param millis
+	 *            milliseconds the search may take
+	 */
+	public QueryBudget(long millis) {
+		this.deadline = System.nanoTime() + millis * 1000000L;
+		this.cancelled = false;
+		this.truncated = false;
+	}
+
+	/**
+	 * Starts a budget if there is a time limit.
+	 *
+	 * @param millis
+	 *            milliseconds the search may take, or 0 for no limit
+	 * @return new budget, or null if there is no limit
+	 */
+	public static QueryBudget of(long millis) {
+		return millis > 0 ? new QueryBudget(millis) : null;
+	}
+
+	/**
+	 * Tests whether the search should stop. Once this returns true the results
+	 * are considered truncated.
+	 *
+	 * @return true if the budget ran out or was cancelled
+	 */
+	public boolean expired() {
+		if (cancelled || System.nanoTime() - deadline >= 0) {
+			truncated = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tests whether the budget ran out or was cancelled.
+	 *
+	 * @param budget
+	 *            budget to check, or null for no limit
+	 * @return true if the search should stop
+	 */
+	public static boolean expired(QueryBudget budget) {
+		return budget != null && budget.expired();
+	}
+
+	/**
+	 * Stops the search at its next check.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Tests whether a search stopped early because of this budget, so its
+	 * results may be missing matches.
+	 *
+	 * @return true if the results were truncated
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Tests whether a search stopped early.
+	 *
+	 * @param budget
+	 *            budget of the search, or null for no limit
+	 * @return true if the results were truncated
+	 */
+	public static boolean isTruncated(QueryBudget budget) {
+		return budget != null && budget.isTruncated();
+	}
+
+	/**
+	 * Returns the time left.
+	 *
+	 * @return milliseconds left, or 0 if the budget has run out
+	 */
+	public long remaining() {
+		return Math.max(0, (deadline - System.nanoTime()) / 1000000L);
+	}
+
+	@Override
+	public String toString() {
+		return "QueryBudget[remaining=" + remaining() + ", truncated=" + truncated + "]";
+	}
+}
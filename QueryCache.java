@@ -0,0 +1,296 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of search results, keyed by the normalized query and whether
+ * the search was exact. The least recently used entry is evicted when the
+ * cache is full.
+ *
+ * Each entry is tagged with the generation of the index it was computed from,
+ * and is treated as a miss once the index has changed, so results never go
+ * stale as documents are added or removed.
+ */
+public class QueryCache {
+
+	/** The default maximum number of cached queries. */
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	/** Rough size in bytes of an entry and of a result, besides the key. */
+	private static final int ENTRY_BYTES = 96;
+	private static final int RESULT_BYTES = 40;
+
+	private final LinkedHashMap<String, Entry> entries;
+	private final int capacity;
+
+	private long hits;
+	private long misses;
+	private long stale;
+	private long evictions;
+	private long bytes;
+
+	/**
+	 * Initializes an empty cache with the default capacity.
+	 *
+	 * @see #DEFAULT_CAPACITY
+	 */
+	public QueryCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity
+	 *            maximum number of cached queries
+	 */
+	public QueryCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		hits = 0;
+		misses = 0;
+		stale = 0;
+		evictions = 0;
+		bytes = 0;
+	}
+
+	/**
+	 * Searches the index for the query words, returning cached results if the
+	 * same query was searched since the index last changed.
+	 *
+	 * @param index
+	 *            index to search
+	 * @param queryWords
+	 *            parsed and sorted query words
+	 * @param exact
+	 *            true for an exact search, false for a partial search
+	 * @return search results, which may be shared with earlier callers
+	 */
+	public ArrayList<SearchResult> search(InvertedIndex index, String[] queryWords, boolean exact) {
+		return search(index, queryWords, exact, null);
+	}
+
+	/**
+	 * Searches the index for the query words within a time budget, returning
+	 * cached results if the same query was searched since the index last
+	 * changed. Results truncated by the budget are not cached.
+	 *
+	 * @param index
+	 *            index to search
+	 * @param queryWords
+	 *            parsed and sorted query words
+	 * @param exact
+	 *            true for an exact search, false for a partial search
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return search results, which may be shared with earlier callers
+	 */
+	public ArrayList<SearchResult> search(InvertedIndex index, String[] queryWords, boolean exact,
+			QueryBudget budget) {
+		String query = String.join(" ", queryWords);
+
+		// read before searching, so a change during the search makes the entry stale
+		long generation = index.generation();
+		ArrayList<SearchResult> results = get(query, exact, generation);
+
+		if (results == null) {
+			results = exact ? index.exactSearch(queryWords, budget) : index.partialSearch(queryWords, budget);
+			if (!QueryBudget.isTruncated(budget)) {
+				put(query, exact, generation, results);
+			}
+		} else if (QueryProfile.current() != null) {
+			QueryProfile.current().cacheHit();
+		}
+		return results;
+	}
+
+	/**
+	 * Searches the index for the words within the edit distance of the query
+	 * words, returning cached results if the same fuzzy query was searched
+	 * since the index last changed. Results truncated by the budget are not
+	 * cached.
+	 *
+	 * @param index
+	 *            index to search
+	 * @param queryWords
+	 *            parsed and sorted query words
+	 * @param distance
+	 *            maximum number of edits
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return search results, which may be shared with earlier callers
+	 */
+	public ArrayList<SearchResult> fuzzySearch(InvertedIndex index, String[] queryWords, int distance,
+			QueryBudget budget) {
+		String key = "%" + distance + String.join(" ", queryWords);
+		long generation = index.generation();
+		ArrayList<SearchResult> results = get(key, generation);
+
+		if (results == null) {
+			results = index.fuzzySearch(queryWords, distance, budget);
+			if (!QueryBudget.isTruncated(budget)) {
+				put(key, generation, results);
+			}
+		} else if (QueryProfile.current() != null) {
+			QueryProfile.current().cacheHit();
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the cached results of the query if they were computed from the
+	 * given generation of the index.
+	 *
+	 * @param query
+	 *            normalized query
+	 * @param exact
+	 * @param generation
+	 *            current generation of the index
+	 * @return cached results or null if not cached or stale
+	 */
+	public ArrayList<SearchResult> get(String query, boolean exact, long generation) {
+		return get(key(query, exact), generation);
+	}
+
+	/**
+	 * Returns the cached results of a key if they are current.
+	 */
+	private synchronized ArrayList<SearchResult> get(String key, long generation) {
+		Entry entry = entries.get(key);
+
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.generation != generation) {
+			stale++;
+			misses++;
+			remove(key, entry);
+			return null;
+		}
+		hits++;
+		return entry.results;
+	}
+
+	/**
+	 * Caches the results of the query, evicting the least recently used
+	 * entries if the cache is full.
+	 *
+	 * @param query
+	 *            normalized query
+	 * @param exact
+	 * @param generation
+	 *            generation of the index the results were computed from
+	 * @param results
+	 */
+	public void put(String query, boolean exact, long generation, ArrayList<SearchResult> results) {
+		put(key(query, exact), generation, results);
+	}
+
+	/**
+	 * Caches the results of a key.
+	 */
+	private synchronized void put(String key, long generation, ArrayList<SearchResult> results) {
+		Entry previous = entries.get(key);
+
+		// never replace newer results with ones computed from an older index
+		if (previous != null && previous.generation > generation) {
+			return;
+		}
+		if (previous != null) {
+			remove(key, previous);
+		}
+
+		Entry entry = new Entry(generation, results);
+		entries.put(key, entry);
+		bytes += size(key, entry);
+
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (entries.size() > capacity && iterator.hasNext()) {
+			Map.Entry<String, Entry> eldest = iterator.next();
+			bytes -= size(eldest.getKey(), eldest.getValue());
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes every cached query.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Returns the number of cached queries.
+	 *
+	 * @return number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the fraction of lookups answered from the cache.
+	 *
+	 * @return hit rate between 0 and 1
+	 */
+	public synchronized double hitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns a rough estimate of the memory used by the cached entries. The
+	 * paths in the results are shared with the index and are not counted.
+	 *
+	 * @return estimated bytes
+	 */
+	public synchronized long memory() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("QueryCache[size=%d, hits=%d, misses=%d, stale=%d, evictions=%d, hitRate=%.2f, bytes=%d]",
+				entries.size(), hits, misses, stale, evictions, hitRate(), bytes);
+	}
+
+	/**
+	 * Removes an entry and stops counting its memory.
+	 */
+	private void remove(String key, Entry entry) {
+		entries.remove(key);
+		bytes -= size(key, entry);
+	}
+
+	/**
+	 * Returns the key of a query: the query prefixed by the kind of search.
+	 * Fuzzy searches use "%" and the distance.
+	 */
+	private static String key(String query, boolean exact) {
+		return (exact ? "=" : "~") + query;
+	}
+
+	/**
+	 * Returns the estimated size of an entry.
+	 */
+	private static long size(String key, Entry entry) {
+		return ENTRY_BYTES + 2L * key.length() + (long) RESULT_BYTES * entry.results.size();
+	}
+
+	/**
+	 * Cached results and the generation of the index they came from.
+	 */
+	private static class Entry {
+		private final long generation;
+		private final ArrayList<SearchResult> results;
+
+		public Entry(long generation, ArrayList<SearchResult> results) {
+			this.generation = generation;
+			this.results = results;
+		}
+	}
+}
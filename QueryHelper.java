@@ -5,12 +5,23 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class QueryHelper implements QueryHelperInterface {
 
 	private final TreeMap<String, ArrayList<SearchResult>> queryMap;
 	private final InvertedIndex index;
+	private QueryCache cache;
+	private int timeout;
+	private int fuzzy;
+	private final TreeSet<String> truncated;
+	private boolean profiling;
+	private final TreeMap<String, QueryProfile> profiles;
 
 	/**
 	 * Creates a QueryHelper object attached to the given index
@@ -20,6 +31,52 @@ public class QueryHelper implements QueryHelperInterface {
 	public QueryHelper(InvertedIndex index) {
 		this.index = index;
 		queryMap = new TreeMap<String, ArrayList<SearchResult>>();
+		cache = null;
+		timeout = 0;
+		fuzzy = 0;
+		truncated = new TreeSet<>();
+		profiling = false;
+		profiles = new TreeMap<>();
+	}
+
+	@Override
+	public void setCache(QueryCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public void setTimeout(int millis) {
+		this.timeout = millis;
+	}
+
+	@Override
+	public int getTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public void setFuzzy(int distance) {
+		this.fuzzy = distance;
+	}
+
+	@Override
+	public int getFuzzy() {
+		return fuzzy;
+	}
+
+	@Override
+	public Set<String> getTruncated() {
+		return Collections.unmodifiableSet(truncated);
+	}
+
+	@Override
+	public void setProfiling(boolean profiling) {
+		this.profiling = profiling;
+	}
+
+	@Override
+	public SortedMap<String, QueryProfile> getProfiles() {
+		return Collections.unmodifiableSortedMap(profiles);
 	}
 
 	/**
@@ -46,18 +103,76 @@ public class QueryHelper implements QueryHelperInterface {
 		String line;
 		try (BufferedReader br = Files.newBufferedReader(filename, StandardCharsets.UTF_8);) {
 			while ((line = br.readLine()) != null) {
+				long start = System.nanoTime();
 				String[] parsedLine = (WordParser.parseWords(line.toString()));
 
 				if (parsedLine.length == 0) {
 					continue;
 				}
 				Arrays.sort(parsedLine);
-				if (exact) {
-					queryMap.put(String.join(" ", parsedLine), index.exactSearch(parsedLine));
-				} else {
-					queryMap.put(String.join(" ", parsedLine), index.partialSearch(parsedLine));
-				}
+				queryMap.put(String.join(" ", parsedLine), search(parsedLine, exact, System.nanoTime() - start));
+			}
+		}
+	}
+
+	@Override
+	public void streamQuery(Path filename, boolean exact, Path output) throws IOException {
+		TreeMap<String, Long> queries = QueryHelperInterface.readQueries(filename);
+		try (SearchResultsWriter results = new SearchResultsWriter(output);) {
+			for (Map.Entry<String, Long> query : queries.entrySet()) {
+				results.write(query.getKey(), search(query.getKey().split(" "), exact, query.getValue()));
+			}
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] parsedLine, boolean exact) {
+		return search(parsedLine, exact, 0);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] parsedLine, boolean exact, int distance, QueryBudget budget) {
+		if (distance > 0) {
+			return (cache != null) ? cache.fuzzySearch(index, parsedLine, distance, budget)
+					: index.fuzzySearch(parsedLine, distance, budget);
+		} else if (cache != null) {
+			return cache.search(index, parsedLine, exact, budget);
+		}
+		return exact ? index.exactSearch(parsedLine, budget) : index.partialSearch(parsedLine, budget);
+	}
+
+	/**
+	 * Searches a single query, profiling it if profiling is on
+	 * 
+	 * @param parsedLine
+	 * @param exact
+	 * @param parsing
+	 *            nanoseconds spent parsing the query
+	 * @return search results
+	 */
+	private ArrayList<SearchResult> search(String[] parsedLine, boolean exact, long parsing) {
+		String query = String.join(" ", parsedLine);
+		QueryProfile profile = profiling ? QueryProfile.start(query, exact) : null;
+		QueryBudget budget = QueryBudget.of(timeout);
+		ArrayList<SearchResult> results;
+		try {
+			results = search(parsedLine, exact, fuzzy, budget);
+		} finally {
+			if (profile != null) {
+				profile.finish();
+			}
+		}
+
+		if (QueryBudget.isTruncated(budget)) {
+			truncated.add(query);
+		}
+		if (profile != null) {
+			profile.addParse(parsing);
+			if (QueryBudget.isTruncated(budget)) {
+				profile.setTruncated();
 			}
+			profiles.put(query, profile);
 		}
+		return results;
 	}
 }
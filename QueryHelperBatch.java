@@ -0,0 +1,448 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Answers a whole query file as one batch. The file is parsed first, repeated
+ * queries are only searched once, and each distinct query word is looked up in
+ * the index once no matter how many queries contain it. The results of each
+ * query are then combined from the shared lookups.
+ */
+public class QueryHelperBatch implements QueryHelperInterface {
+	private final TreeMap<String, ArrayList<SearchResult>> queryMap;
+	private final InvertedIndex index;
+	private final WorkQueue.TaskGroup minions;
+	private QueryCache cache;
+	private int timeout;
+	private int fuzzy;
+	private final ConcurrentSkipListSet<String> truncated;
+	private volatile boolean profiling;
+	private final ConcurrentSkipListMap<String, QueryProfile> profiles;
+
+	/** Number of lines searched together when streaming results. */
+	public static final int STREAM_BATCH = 1000;
+
+	private int queries;
+	private int searched;
+	private int words;
+	private int lookups;
+
+	/**
+	 * Creates a batch query helper attached to the given index, which searches
+	 * on the calling thread.
+	 *
+	 * @param index
+	 */
+	public QueryHelperBatch(InvertedIndex index) {
+		this(null, index);
+	}
+
+	/**
+	 * Creates a batch query helper attached to the given index, which looks up
+	 * words and combines results on the work queue.
+	 *
+	 * @param workQueue
+	 *            work queue, or null to search on the calling thread
+	 * @param index
+	 *            index to search, which must be thread-safe if a work queue is
+	 *            used
+	 */
+	public QueryHelperBatch(WorkQueue workQueue, InvertedIndex index) {
+		this.index = index;
+		this.minions = (workQueue != null) ? workQueue.newGroup() : null;
+		queryMap = new TreeMap<String, ArrayList<SearchResult>>();
+		cache = null;
+		timeout = 0;
+		fuzzy = 0;
+		truncated = new ConcurrentSkipListSet<>();
+		profiling = false;
+		profiles = new ConcurrentSkipListMap<>();
+	}
+
+	@Override
+	public void setCache(QueryCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Limits how long each word may be looked up, since lookups are shared by
+	 * queries. Every query containing a word that ran out of time is reported
+	 * as truncated.
+	 *
+	 * @param millis
+	 *            milliseconds per word, or 0 for no limit
+	 */
+	@Override
+	public void setTimeout(int millis) {
+		this.timeout = millis;
+	}
+
+	@Override
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Looks up the words within the edit distance of each word instead, still
+	 * sharing lookups within a batch. Fuzzy queries are not cached.
+	 *
+	 * @param distance
+	 *            maximum number of edits, or 0 to turn fuzzy search off
+	 */
+	@Override
+	public void setFuzzy(int distance) {
+		this.fuzzy = distance;
+	}
+
+	@Override
+	public int getFuzzy() {
+		return fuzzy;
+	}
+
+	@Override
+	public Set<String> getTruncated() {
+		return Collections.unmodifiableSet(truncated);
+	}
+
+	/**
+	 * Profiles each query searched from now on. Lookups are shared by the
+	 * queries of a batch, so the profile of a batched query records combining
+	 * and sorting its results and cache hits, but not its lookups or parsing.
+	 *
+	 * @param profiling
+	 *            true to profile queries, false to stop
+	 */
+	@Override
+	public void setProfiling(boolean profiling) {
+		this.profiling = profiling;
+	}
+
+	@Override
+	public SortedMap<String, QueryProfile> getProfiles() {
+		return Collections.unmodifiableSortedMap(profiles);
+	}
+
+	/**
+	 * Converts query treeMap to JSON output using methods from JSONWriter
+	 *
+	 * @param path
+	 * @throws IOException
+	 */
+	@Override
+	public void toJSON(Path path) throws IOException {
+		JSONWriter.asSearchResults(queryMap, path);
+	}
+
+	/**
+	 * Parses every query in the file, then searches the distinct queries
+	 * sharing one lookup per distinct query word.
+	 *
+	 * @param filename
+	 * @param exact
+	 * @throws IOException
+	 */
+	@Override
+	public void parseQuery(Path filename, boolean exact) throws IOException {
+		ArrayList<String[]> batch = new ArrayList<>();
+
+		String line;
+		try (BufferedReader br = Files.newBufferedReader(filename, StandardCharsets.UTF_8);) {
+			while ((line = br.readLine()) != null) {
+				String[] parsedLine = (WordParser.parseWords(line.toString()));
+				if (parsedLine.length > 0) {
+					Arrays.sort(parsedLine);
+					batch.add(parsedLine);
+				}
+			}
+		}
+
+		reset();
+		queryMap.putAll(search(batch, exact));
+	}
+
+	/**
+	 * Reads the distinct queries first, then searches them in sorted batches of
+	 * {@link #STREAM_BATCH} queries, sharing lookups within each batch, and
+	 * writes each batch's results before searching the next.
+	 *
+	 * @param filename
+	 * @param exact
+	 * @param output
+	 * @throws IOException
+	 */
+	@Override
+	public void streamQuery(Path filename, boolean exact, Path output) throws IOException {
+		TreeMap<String, String[]> distinct = new TreeMap<>();
+		reset();
+
+		String line;
+		try (BufferedReader br = Files.newBufferedReader(filename, StandardCharsets.UTF_8);) {
+			while ((line = br.readLine()) != null) {
+				String[] parsedLine = (WordParser.parseWords(line.toString()));
+				if (parsedLine.length == 0) {
+					continue;
+				}
+				Arrays.sort(parsedLine);
+
+				// repeats are counted here, since only distinct queries reach search()
+				if (distinct.putIfAbsent(String.join(" ", parsedLine), parsedLine) != null) {
+					queries++;
+					words += parsedLine.length;
+				}
+			}
+		}
+
+		ArrayList<String[]> batch = new ArrayList<>(STREAM_BATCH);
+		try (SearchResultsWriter results = new SearchResultsWriter(output);) {
+			for (String[] parsedLine : distinct.values()) {
+				batch.add(parsedLine);
+
+				if (batch.size() >= STREAM_BATCH) {
+					write(search(batch, exact), results);
+					batch.clear();
+				}
+			}
+			write(search(batch, exact), results);
+		}
+	}
+
+	/**
+	 * Searches a single query by combining a lookup of each of its words, so
+	 * short prefixes still come from the prefix cache.
+	 *
+	 * @param queryWords
+	 * @param exact
+	 * @return search results
+	 */
+	@Override
+	public ArrayList<SearchResult> search(String[] queryWords, boolean exact) {
+		String query = String.join(" ", queryWords);
+		QueryProfile profile = profiling ? QueryProfile.start(query, exact) : null;
+		QueryBudget budget = QueryBudget.of(timeout);
+		try {
+			ArrayList<SearchResult> results = search(queryWords, exact, fuzzy, budget);
+			if (QueryBudget.isTruncated(budget)) {
+				truncated.add(query);
+				if (profile != null) {
+					profile.setTruncated();
+				}
+			}
+			return results;
+		} finally {
+			if (profile != null) {
+				profile.finish();
+				profiles.put(query, profile);
+			}
+		}
+	}
+
+	/**
+	 * Searches a single query by combining a lookup of each of its words.
+	 * Fuzzy queries are not cached.
+	 */
+	@Override
+	public ArrayList<SearchResult> search(String[] queryWords, boolean exact, int distance, QueryBudget budget) {
+		String query = String.join(" ", queryWords);
+		QueryCache cache = (distance > 0) ? null : this.cache;
+		long generation = index.generation();
+		ArrayList<SearchResult> results = (cache != null) ? cache.get(query, exact, generation) : null;
+		if (results != null) {
+			QueryProfile profile = QueryProfile.current();
+			if (profile != null) {
+				profile.cacheHit();
+			}
+			return results;
+		}
+
+		ArrayList<TreeMap<String, SearchResult>> lookups = new ArrayList<>(queryWords.length);
+		for (String word : queryWords) {
+			lookups.add(lookup(word, exact, distance, budget));
+		}
+		results = InvertedIndex.combine(lookups);
+
+		if (cache != null && !QueryBudget.isTruncated(budget)) {
+			cache.put(query, exact, generation, results);
+		}
+		return results;
+	}
+
+	/**
+	 * Writes the results of a batch to the stream.
+	 */
+	private static void write(LinkedHashMap<String, ArrayList<SearchResult>> batch, SearchResultsWriter results)
+			throws IOException {
+		for (Map.Entry<String, ArrayList<SearchResult>> query : batch.entrySet()) {
+			results.write(query.getKey(), query.getValue());
+		}
+	}
+
+	/**
+	 * Resets the statistics reported by {@link #toString()}.
+	 */
+	private void reset() {
+		queries = 0;
+		searched = 0;
+		words = 0;
+		lookups = 0;
+	}
+
+	/**
+	 * Searches a batch of parsed and sorted queries. Repeated queries are
+	 * searched once, and each distinct word is looked up once for the whole
+	 * batch.
+	 *
+	 * @param batch
+	 *            parsed and sorted query words of each query
+	 * @param exact
+	 * @return results of each distinct query, in the order the queries first
+	 *         appear in the batch
+	 */
+	private LinkedHashMap<String, ArrayList<SearchResult>> search(ArrayList<String[]> batch, boolean exact) {
+		LinkedHashMap<String, ArrayList<SearchResult>> results = new LinkedHashMap<>();
+		TreeMap<String, String[]> distinct = new TreeMap<>();
+		long generation = index.generation();
+		QueryCache cache = (fuzzy > 0) ? null : this.cache;
+
+		for (String[] parsedLine : batch) {
+			queries++;
+			words += parsedLine.length;
+
+			String query = String.join(" ", parsedLine);
+			if (!results.containsKey(query)) {
+				ArrayList<SearchResult> cached = (cache != null) ? cache.get(query, exact, generation) : null;
+				// placeholder keeps the first-appearance order until the results are found
+				results.put(query, cached);
+				if (cached == null) {
+					distinct.put(query, parsedLine);
+				} else if (profiling) {
+					QueryProfile profile = new QueryProfile(query, exact);
+					profile.cacheHit();
+					profile.finish();
+					profiles.put(query, profile);
+				}
+			}
+		}
+
+		// look up each distinct word once
+		TreeMap<String, CompletableFuture<TreeMap<String, SearchResult>>> found = new TreeMap<>();
+		Set<String> incomplete = ConcurrentHashMap.newKeySet();
+		for (String[] queryWords : distinct.values()) {
+			for (String word : queryWords) {
+				if (!found.containsKey(word)) {
+					found.put(word, submit(() -> {
+						QueryBudget budget = QueryBudget.of(timeout);
+						TreeMap<String, SearchResult> lookup = lookup(word, exact, fuzzy, budget);
+						if (QueryBudget.isTruncated(budget)) {
+							incomplete.add(word);
+						}
+						return lookup;
+					}));
+				}
+			}
+		}
+		searched += distinct.size();
+		lookups += found.size();
+
+		// combine the shared lookups into the results of each query
+		TreeMap<String, CompletableFuture<ArrayList<SearchResult>>> combined = new TreeMap<>();
+		for (Map.Entry<String, String[]> query : distinct.entrySet()) {
+			ArrayList<CompletableFuture<TreeMap<String, SearchResult>>> parts = new ArrayList<>();
+			for (String word : query.getValue()) {
+				parts.add(found.get(word));
+			}
+			combined.put(query.getKey(), CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+					.thenCompose(done -> submit(() -> combine(query.getKey(), exact, parts))));
+		}
+
+		for (Map.Entry<String, CompletableFuture<ArrayList<SearchResult>>> query : combined.entrySet()) {
+			ArrayList<SearchResult> list = WorkQueue.join(query.getValue());
+			results.put(query.getKey(), list);
+
+			boolean complete = true;
+			for (String word : distinct.get(query.getKey())) {
+				complete &= !incomplete.contains(word);
+			}
+			if (!complete) {
+				truncated.add(query.getKey());
+				if (profiles.containsKey(query.getKey())) {
+					profiles.get(query.getKey()).setTruncated();
+				}
+			} else if (cache != null) {
+				cache.put(query.getKey(), exact, generation, list);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Runs a task on the work queue, or on the calling thread if there is none.
+	 * A task dropped by a bounded queue cancels its future, so nothing waits on
+	 * it forever.
+	 */
+	private <T> CompletableFuture<T> submit(Callable<T> task) {
+		if (minions != null) {
+			return minions.submit(task);
+		}
+		try {
+			return CompletableFuture.completedFuture(task.call());
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Looks up a single word, or the words within the edit distance of it if
+	 * the distance is not 0.
+	 */
+	private TreeMap<String, SearchResult> lookup(String word, boolean exact, int distance, QueryBudget budget) {
+		return (distance > 0) ? index.fuzzyLookup(word, distance, budget) : index.lookup(word, exact, budget);
+	}
+
+	/**
+	 * Combines the completed lookups of each word of a query, profiling the
+	 * query if profiling is on.
+	 */
+	private ArrayList<SearchResult> combine(String query, boolean exact,
+			ArrayList<CompletableFuture<TreeMap<String, SearchResult>>> parts) {
+		ArrayList<TreeMap<String, SearchResult>> lookups = new ArrayList<>(parts.size());
+		for (CompletableFuture<TreeMap<String, SearchResult>> part : parts) {
+			lookups.add(part.join());
+		}
+
+		QueryProfile profile = profiling ? QueryProfile.start(query, exact) : null;
+		try {
+			return InvertedIndex.combine(lookups);
+		} finally {
+			if (profile != null) {
+				profile.finish();
+				profiles.put(query, profile);
+			}
+		}
+	}
+
+	/**
+	 * Describes the work saved by the last batch: the number of queries and
+	 * query words parsed, against the number of queries actually searched
+	 * (repeated and cached queries are not) and words looked up.
+	 */
+	@Override
+	public String toString() {
+		return "Batch: " + queries + " queries, " + searched + " searched; " + lookups
+				+ " word lookups instead of " + words + " (saved " + (words - lookups) + ")";
+	}
+}
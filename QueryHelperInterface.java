@@ -1,5 +1,13 @@
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public interface QueryHelperInterface {
 	/**
@@ -19,4 +27,146 @@ public interface QueryHelperInterface {
 	 * @throws IOException
 	 */
 	public void parseQuery(Path filename, boolean exact) throws IOException;
+
+	/**
+	 * Searches each query in the file and writes its results to the output as
+	 * soon as they are found, instead of keeping every result until
+	 * {@link #toJSON(Path)} is called. The queries are read first and written
+	 * sorted, so the output is the same as {@link #toJSON(Path)}, but memory
+	 * use does not grow with the number of queries' results.
+	 *
+	 * @param filename
+	 * @param exact
+	 * @param output
+	 *            file to write the results to
+	 * @throws IOException
+	 */
+	public void streamQuery(Path filename, boolean exact, Path output) throws IOException;
+
+	/**
+	 * Searches a single query, through the cache and within the timeout if
+	 * they are set, without adding its results to the output of
+	 * {@link #toJSON(Path)}. Multithreaded helpers allow many searches at
+	 * once.
+	 *
+	 * @param queryWords
+	 *            parsed and sorted query words
+	 * @param exact
+	 * @return search results
+	 */
+	public ArrayList<SearchResult> search(String[] queryWords, boolean exact);
+
+	/**
+	 * Searches a single query through the cache if it is set, within the given
+	 * budget instead of the timeout and with the given edit distance instead
+	 * of the one set by {@link #setFuzzy(int)}. Nothing is recorded for
+	 * {@link #getTruncated()} or {@link #getProfiles()}, so many callers can
+	 * search at once with a multithreaded helper and each learns from its own
+	 * budget whether its search ran out of time.
+	 *
+	 * @param queryWords
+	 *            parsed and sorted query words
+	 * @param exact
+	 * @param distance
+	 *            maximum number of edits, or 0 for an exact or partial search
+	 * @param budget
+	 *            time budget, or null for no limit
+	 * @return search results
+	 */
+	public ArrayList<SearchResult> search(String[] queryWords, boolean exact, int distance, QueryBudget budget);
+
+	/**
+	 * Answers repeated queries from the cache instead of searching the index
+	 * again, for as long as the index does not change.
+	 *
+	 * @param cache
+	 *            cache of search results, or null to always search
+	 */
+	public void setCache(QueryCache cache);
+
+	/**
+	 * Limits how long each query may be searched. A query that runs out of
+	 * time keeps the results found so far, and is reported as truncated.
+	 *
+	 * @param millis
+	 *            milliseconds per query, or 0 for no limit
+	 */
+	public void setTimeout(int millis);
+
+	/**
+	 * Returns how long each query may be searched.
+	 *
+	 * @return milliseconds per query, or 0 for no limit
+	 */
+	public int getTimeout();
+
+	/**
+	 * Returns the queries whose results were truncated because they ran out of
+	 * time.
+	 *
+	 * @return truncated queries
+	 */
+	public Set<String> getTruncated();
+
+	/**
+	 * Records a profile of each query searched from now on: the terms it
+	 * expanded to, the postings it touched, and where its time went.
+	 *
+	 * @param profiling
+	 *            true to profile queries, false to stop
+	 */
+	public void setProfiling(boolean profiling);
+
+	/**
+	 * Returns the profile of each query searched while profiling, by query.
+	 *
+	 * @return query profiles
+	 */
+	public SortedMap<String, QueryProfile> getProfiles();
+
+	/**
+	 * Searches for the words within an edit distance of each query word
+	 * instead of exact or partial matches, so misspelled queries still find
+	 * results.
+	 *
+	 * @param distance
+	 *            maximum number of edits, at most
+	 *            {@link InvertedIndex#MAX_DISTANCE}, or 0 to turn fuzzy search
+	 *            off
+	 */
+	public void setFuzzy(int distance);
+
+	/**
+	 * Returns the edit distance searched for each query word.
+	 *
+	 * @return maximum number of edits, or 0 if fuzzy search is off
+	 */
+	public int getFuzzy();
+
+	/**
+	 * Parses every query in the file, so that streamed queries can be searched
+	 * and written in sorted order. Only the queries are kept, not their
+	 * results.
+	 *
+	 * @param filename
+	 * @return each distinct query, its words sorted and joined by spaces,
+	 *         mapped to the nanoseconds spent parsing it
+	 * @throws IOException
+	 */
+	public static TreeMap<String, Long> readQueries(Path filename) throws IOException {
+		TreeMap<String, Long> queries = new TreeMap<>();
+
+		String line;
+		try (BufferedReader br = Files.newBufferedReader(filename, StandardCharsets.UTF_8);) {
+			while ((line = br.readLine()) != null) {
+				long start = System.nanoTime();
+				String[] parsedLine = WordParser.parseWords(line);
+				if (parsedLine.length > 0) {
+					Arrays.sort(parsedLine);
+					queries.putIfAbsent(String.join(" ", parsedLine), System.nanoTime() - start);
+				}
+			}
+		}
+		return queries;
+	}
 }
@@ -3,56 +3,119 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.TreeMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.apache.logging.log4j.LogManager;
 
 public class QueryHelperMultithreaded implements QueryHelperInterface {
 	public static final org.apache.logging.log4j.Logger logger = LogManager.getLogger();
-	private final TreeMap<String, ArrayList<SearchResult>> queryMap;
+
+	/**
+	 * Number of queries per worker that may be searched ahead of the next
+	 * query to write.
+	 */
+	public static final int STREAM_WINDOW = 4;
+
+	private final ConcurrentSkipListMap<String, ArrayList<SearchResult>> queryMap;
 	private final InvertedIndexThreadSafe indexThreaded;
-	private final WorkQueue minions;
-	private final ReadWriteLock lock;
+	private final WorkQueue.TaskGroup minions;
+	private QueryCache cache;
+	private int timeout;
+	private int fuzzy;
+	private final ConcurrentSkipListSet<String> truncated;
+	private volatile boolean profiling;
+	private final ConcurrentSkipListMap<String, QueryProfile> profiles;
 
 	/**
-	 * Creates a QueryHelper object attached to the given index
+	 * Creates a QueryHelper object attached to the given index. Queries are
+	 * searched as their own task group of the work queue, so searching can
+	 * share the queue with other work without waiting for it.
 	 * 
 	 * @param index
 	 */
 	public QueryHelperMultithreaded(WorkQueue workQueue, InvertedIndexThreadSafe indexThreaded) {
-		minions = workQueue;
+		minions = workQueue.newGroup();
 		this.indexThreaded = indexThreaded;
-		queryMap = new TreeMap<String, ArrayList<SearchResult>>();
-		lock = new ReadWriteLock();
+		queryMap = new ConcurrentSkipListMap<String, ArrayList<SearchResult>>();
+		cache = null;
+		timeout = 0;
+		fuzzy = 0;
+		truncated = new ConcurrentSkipListSet<>();
+		profiling = false;
+		profiles = new ConcurrentSkipListMap<>();
+	}
+
+	@Override
+	public void setCache(QueryCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public void setTimeout(int millis) {
+		this.timeout = millis;
+	}
+
+	@Override
+	public int getTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public void setFuzzy(int distance) {
+		this.fuzzy = distance;
+	}
+
+	@Override
+	public int getFuzzy() {
+		return fuzzy;
+	}
+
+	@Override
+	public Set<String> getTruncated() {
+		return Collections.unmodifiableSet(truncated);
+	}
+
+	@Override
+	public void setProfiling(boolean profiling) {
+		this.profiling = profiling;
+	}
+
+	@Override
+	public SortedMap<String, QueryProfile> getProfiles() {
+		return Collections.unmodifiableSortedMap(profiles);
 	}
 
 	/**
-	 * Converts query treeMap to JSON output using methods from JSONWriter
+	 * Converts query map to JSON output using methods from JSONWriter
 	 *
 	 * @param path
 	 * @throws IOException
 	 */
 	@Override
 	public void toJSON(Path path) throws IOException {
-		lock.lockReadOnly();
 		JSONWriter.asSearchResults(queryMap, path);
-		lock.unlockReadOnly();
 	}
 
 	/**
 	 * Helper method which is run by SearchMinions to add the search results to
-	 * queryMap
+	 * queryMap. The map is a concurrent skip list, so minions publish their
+	 * results without locking or waiting on each other, and the queries stay
+	 * sorted for JSONWriter.
 	 * 
 	 * @param query
 	 * @param results
 	 */
-
 	private void addResults(String query, ArrayList<SearchResult> results) {
-		lock.lockReadWrite();
 		queryMap.put(query, results);
-		lock.unlockReadWrite();
 	}
 
 	/**
@@ -74,6 +137,92 @@ public class QueryHelperMultithreaded implements QueryHelperInterface {
 		minions.finish();
 	}
 
+	/**
+	 * Searches the queries on the work queue and writes their results sorted by
+	 * query. Results that finish early wait in a reorder buffer until every
+	 * query before them is written, and no more queries are searched once the
+	 * buffer is full, so only a few queries' results are held at a time.
+	 *
+	 * @param filename
+	 * @param exact
+	 * @param output
+	 * @throws IOException
+	 */
+	@Override
+	public void streamQuery(Path filename, boolean exact, Path output) throws IOException {
+		int window = Math.max(1, minions.queue().size() * STREAM_WINDOW);
+		ArrayDeque<String> queries = new ArrayDeque<>(window);
+		ArrayDeque<CompletableFuture<ArrayList<SearchResult>>> searches = new ArrayDeque<>(window);
+
+		try (SearchResultsWriter results = new SearchResultsWriter(output);) {
+			for (Map.Entry<String, Long> query : QueryHelperInterface.readQueries(filename).entrySet()) {
+				String[] parsedLine = query.getKey().split(" ");
+				long parsing = query.getValue();
+				queries.add(query.getKey());
+				searches.add(minions.submit(() -> search(parsedLine, exact, parsing)));
+
+				if (searches.size() >= window) {
+					results.write(queries.poll(), WorkQueue.join(searches.poll()));
+				}
+			}
+
+			while (!searches.isEmpty()) {
+				results.write(queries.poll(), WorkQueue.join(searches.poll()));
+			}
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] parsedLine, boolean exact) {
+		return search(parsedLine, exact, 0);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(String[] parsedLine, boolean exact, int distance, QueryBudget budget) {
+		if (distance > 0) {
+			return (cache != null) ? cache.fuzzySearch(indexThreaded, parsedLine, distance, budget)
+					: indexThreaded.fuzzySearch(parsedLine, distance, budget);
+		} else if (cache != null) {
+			return cache.search(indexThreaded, parsedLine, exact, budget);
+		}
+		return exact ? indexThreaded.exactSearch(parsedLine, budget) : indexThreaded.partialSearch(parsedLine, budget);
+	}
+
+	/**
+	 * Searches a single query, profiling it if profiling is on
+	 * 
+	 * @param parsedLine
+	 * @param exact
+	 * @param parsing
+	 *            nanoseconds spent parsing the query
+	 * @return search results
+	 */
+	private ArrayList<SearchResult> search(String[] parsedLine, boolean exact, long parsing) {
+		String query = String.join(" ", parsedLine);
+		QueryProfile profile = profiling ? QueryProfile.start(query, exact) : null;
+		QueryBudget budget = QueryBudget.of(timeout);
+		ArrayList<SearchResult> results;
+		try {
+			results = search(parsedLine, exact, fuzzy, budget);
+		} finally {
+			if (profile != null) {
+				profile.finish();
+			}
+		}
+
+		if (QueryBudget.isTruncated(budget)) {
+			truncated.add(query);
+		}
+		if (profile != null) {
+			profile.addParse(parsing);
+			if (QueryBudget.isTruncated(budget)) {
+				profile.setTruncated();
+			}
+			profiles.put(query, profile);
+		}
+		return results;
+	}
+
 	/**
 	 * Handles searching individual queries and adding results to the queryMap
 	 * 
@@ -95,14 +244,14 @@ public class QueryHelperMultithreaded implements QueryHelperInterface {
 
 		@Override
 		public void run() {
+			long start = System.nanoTime();
 			String[] parsedLine = (WordParser.parseWords(line.toString()));
 			if (parsedLine.length == 0) {
 				return;
 			}
 			Arrays.sort(parsedLine);
 
-			ArrayList<SearchResult> tempArray = (exact) ? indexThreaded.exactSearch(parsedLine)
-					: indexThreaded.partialSearch(parsedLine);
+			ArrayList<SearchResult> tempArray = search(parsedLine, exact, System.nanoTime() - start);
 
 			line = String.join(" ", parsedLine);
 			addResults(line, tempArray);
@@ -0,0 +1,251 @@
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Records where the time of a single query went: the index terms its words
+ * expanded to, the postings (word and file pairs) it touched, the time spent
+ * parsing, looking up, merging, sorting and waiting for the index lock, and
+ * whether it was answered from the query or prefix cache.
+ *
+ * A profile is attached to the thread searching the query, so the index can
+ * record into it without being passed the profile. When no profile is attached
+ * nothing is recorded.
+ */
+public class QueryProfile {
+
+	/** Maximum number of expanded terms listed per query; the rest are only counted. */
+	public static final int MAX_TERMS = 100;
+
+	/** The profile of the query each thread is searching, if any. */
+	private static final ThreadLocal<QueryProfile> CURRENT = new ThreadLocal<>();
+
+	private final String query;
+	private final boolean exact;
+	private final long started;
+	private final TreeMap<String, Integer> terms;
+
+	private int expanded;
+	private long postings;
+	private long parse;
+	private long lookup;
+	private long merge;
+	private long sort;
+	private long lockWait;
+	private long total;
+	private boolean cached;
+	private int prefixHits;
+	private boolean truncated;
+
+	/**
+	 * Initializes an empty profile of the query.
+	 *
+	 * @param query
+	 *            normalized query
+	 * @param exact
+	 */
+	public QueryProfile(String query, boolean exact) {
+		this.query = query;
+		this.exact = exact;
+		this.started = System.nanoTime();
+		this.terms = new TreeMap<>();
+		expanded = 0;
+		postings = 0;
+		parse = 0;
+		lookup = 0;
+		merge = 0;
+		sort = 0;
+		lockWait = 0;
+		total = 0;
+		cached = false;
+		prefixHits = 0;
+		truncated = false;
+	}
+
+	/**
+	 * Starts profiling a query on the current thread.
+	 *
+	 * @param query
+	 *            normalized query
+	 * @param exact
+	 * @return new profile
+	 */
+	public static QueryProfile start(String query, boolean exact) {
+		QueryProfile profile = new QueryProfile(query, exact);
+		CURRENT.set(profile);
+		return profile;
+	}
+
+	/**
+	 * Returns the profile of the query the current thread is searching.
+	 *
+	 * @return profile, or null if the query is not profiled
+	 */
+	public static QueryProfile current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Stops profiling on the current thread, and records the total time since
+	 * the profile started.
+	 */
+	public void finish() {
+		total = System.nanoTime() - started;
+		if (CURRENT.get() == this) {
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * Records an index term a query word expanded to.
+	 *
+	 * @param term
+	 *            matching word of the index
+	 * @param files
+	 *            number of postings of the term
+	 */
+	public void expanded(String term, int files) {
+		expanded++;
+		postings += files;
+		if (terms.size() < MAX_TERMS || terms.containsKey(term)) {
+			terms.merge(term, files, Integer::sum);
+		}
+	}
+
+	/**
+	 * Records postings merged from a cached lookup.
+	 *
+	 * @param files
+	 *            number of postings merged
+	 */
+	public void touched(int files) {
+		postings += files;
+	}
+
+	/** Adds time spent parsing the query, in nanoseconds. */
+	public void addParse(long nanos) {
+		parse += nanos;
+	}
+
+	/** Adds time spent expanding query words and walking their postings, in nanoseconds. */
+	public void addLookup(long nanos) {
+		lookup += nanos;
+	}
+
+	/** Adds time spent merging cached or shared lookups, in nanoseconds. */
+	public void addMerge(long nanos) {
+		merge += nanos;
+	}
+
+	/** Adds time spent sorting and creating the results, in nanoseconds. */
+	public void addSort(long nanos) {
+		sort += nanos;
+	}
+
+	/** Adds time spent waiting for the index lock, in nanoseconds. */
+	public void addLockWait(long nanos) {
+		lockWait += nanos;
+	}
+
+	/**
+	 * Records that the query was answered from the query cache.
+	 */
+	public void cacheHit() {
+		cached = true;
+	}
+
+	/**
+	 * Records that a query word was answered from the prefix cache.
+	 */
+	public void prefixHit() {
+		prefixHits++;
+	}
+
+	/**
+	 * Records that the query ran out of time.
+	 */
+	public void setTruncated() {
+		truncated = true;
+	}
+
+	/** Returns the normalized query. */
+	public String getQuery() {
+		return query;
+	}
+
+	/** Tests whether the search was exact. */
+	public boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * Returns the first {@link #MAX_TERMS} terms expanded, and the number of
+	 * postings each touched.
+	 *
+	 * @return terms mapped to postings
+	 */
+	public SortedMap<String, Integer> getTerms() {
+		return Collections.unmodifiableSortedMap(terms);
+	}
+
+	/** Returns the number of index terms the query words expanded to. */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/** Returns the number of postings touched. */
+	public long getPostings() {
+		return postings;
+	}
+
+	/** Returns the parse time in nanoseconds. */
+	public long getParse() {
+		return parse;
+	}
+
+	/** Returns the lookup time in nanoseconds. */
+	public long getLookup() {
+		return lookup;
+	}
+
+	/** Returns the merge time in nanoseconds. */
+	public long getMerge() {
+		return merge;
+	}
+
+	/** Returns the sort time in nanoseconds. */
+	public long getSort() {
+		return sort;
+	}
+
+	/** Returns the lock wait time in nanoseconds. */
+	public long getLockWait() {
+		return lockWait;
+	}
+
+	/** Returns the total time in nanoseconds, from start to finish. */
+	public long getTotal() {
+		return total;
+	}
+
+	/** Tests whether the query was answered from the query cache. */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/** Returns the number of query words answered from the prefix cache. */
+	public int getPrefixHits() {
+		return prefixHits;
+	}
+
+	/** Tests whether the query ran out of time. */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("QueryProfile[%s, expanded=%d, postings=%d, total=%dus]", query, expanded, postings,
+				total / 1000);
+	}
+}
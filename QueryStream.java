@@ -0,0 +1,151 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Searches queries as they arrive one per line, and writes the results of each
+ * as one line of JSON (newline-delimited JSON), in the same order as the
+ * queries. Every input line gets exactly one output line, even if it has no
+ * query words.
+ *
+ * Queries are pipelined: while input keeps arriving, many queries are searched
+ * on the work queue at once and their results are written as they complete in
+ * order. Whenever the input pauses, every pending result is written and
+ * flushed, so interactive use sees each answer right away.
+ *
+ * Queries from the same stream, and from every connection when serving, are
+ * searched at once, so the helper must be multithreaded. Each query has its
+ * own time budget, and only that query is marked as truncated when it runs
+ * out of time.
+ */
+public class QueryStream {
+	public static final org.apache.logging.log4j.Logger logger = LogManager.getLogger();
+
+	/** Number of queries per worker that may be searched at once. */
+	public static final int WINDOW = 4;
+
+	private final QueryHelperMultithreaded helper;
+	private final WorkQueue.TaskGroup minions;
+	private final int window;
+
+	/**
+	 * Creates a stream that searches with the helper.
+	 *
+	 * @param helper
+	 *            helper used to search each query, with its cache, timeout and
+	 *            edit distance
+	 * @param workQueue
+	 *            work queue to search on, or null to search on the reading
+	 *            thread
+	 */
+	public QueryStream(QueryHelperMultithreaded helper, WorkQueue workQueue) {
+		this.helper = helper;
+		this.minions = (workQueue != null) ? workQueue.newGroup() : null;
+		this.window = (workQueue != null) ? workQueue.size() * WINDOW : 1;
+	}
+
+	/**
+	 * Searches every line of the input until it ends, writing one line of
+	 * results per line of input.
+	 *
+	 * @param in
+	 * @param out
+	 * @param exact
+	 * @throws IOException
+	 */
+	public void run(BufferedReader in, Writer out, boolean exact) throws IOException {
+		ArrayDeque<CompletableFuture<String>> searches = new ArrayDeque<>();
+
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] parsedLine = WordParser.parseWords(line);
+			Arrays.sort(parsedLine);
+			searches.add(search(parsedLine, exact));
+
+			// write results already found, and wait for the oldest if too many are pending
+			while (!searches.isEmpty() && (searches.peek().isDone() || searches.size() >= window)) {
+				out.write(WorkQueue.join(searches.poll()));
+			}
+
+			if (!in.ready()) {
+				while (!searches.isEmpty()) {
+					out.write(WorkQueue.join(searches.poll()));
+				}
+				out.flush();
+			}
+		}
+
+		while (!searches.isEmpty()) {
+			out.write(WorkQueue.join(searches.poll()));
+		}
+		out.flush();
+	}
+
+	/**
+	 * Accepts connections on the port until the process is stopped, and runs a
+	 * stream for each connection on its own thread.
+	 *
+	 * @param port
+	 * @param exact
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public void serve(int port, boolean exact) throws IOException {
+		try (ServerSocket server = new ServerSocket(port)) {
+			System.out.println("Streaming searches on port " + server.getLocalPort());
+			while (true) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				new Thread(() -> {
+					try (Socket client = socket;
+							BufferedReader in = new BufferedReader(
+									new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+							BufferedWriter out = new BufferedWriter(
+									new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))) {
+						run(in, out, exact);
+					} catch (IOException | RuntimeException e) {
+						logger.debug(e);
+					}
+				}).start();
+			}
+		}
+	}
+
+	/**
+	 * Starts searching a query, on the work queue if there is one.
+	 */
+	private CompletableFuture<String> search(String[] parsedLine, boolean exact) throws IOException {
+		if (minions == null) {
+			return CompletableFuture.completedFuture(answer(parsedLine, exact));
+		}
+		return minions.submit(() -> answer(parsedLine, exact));
+	}
+
+	/**
+	 * Searches a query within its own time budget, and returns its results as
+	 * one line.
+	 */
+	private String answer(String[] parsedLine, boolean exact) throws IOException {
+		QueryBudget budget = QueryBudget.of(helper.getTimeout());
+		ArrayList<SearchResult> results = (parsedLine.length == 0) ? new ArrayList<>()
+				: helper.search(parsedLine, exact, helper.getFuzzy(), budget);
+
+		StringWriter line = new StringWriter();
+		JSONWriter.asSearchResultLine(String.join(" ", parsedLine), results, QueryBudget.isTruncated(budget), line);
+		line.write("\n");
+		return line.toString();
+	}
+}
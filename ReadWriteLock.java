@@ -1,82 +1,149 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.apache.logging.log4j.LogManager;
 
 /**
- * A simple custom lock that allows simultaneously read operations, but
- * disallows simultaneously write and read/write operations.
+ * A custom lock that allows simultaneously read operations, but disallows
+ * simultaneously write and read/write operations.
  *
- * Does not implement any form or priority to read or write operations. The
- * first thread that acquires the appropriate lock should be allowed to
- * continue.
+ * Writers are preferred: once a writer is waiting, new readers wait behind it,
+ * so a steady stream of readers cannot starve writers. Readers and writers wait
+ * separately, so releasing the lock only wakes the threads that can proceed.
+ * Both locks are reentrant, and the thread holding the write lock may also
+ * acquire the read lock. A read lock cannot be upgraded to a write lock.
  */
 public class ReadWriteLock {
 	public static final org.apache.logging.log4j.Logger log = LogManager.getLogger();
+
+	private final ReentrantLock mutex;
+	private final Condition readable;
+	private final Condition writable;
+
+	/** Read holds by the current thread, to allow reentrant reads. */
+	private final ThreadLocal<int[]> holds;
+
 	private int readers;
-	private int writers;
+	private int waitingWriters;
+	private Thread writer;
+	private int writes;
 
 	/**
 	 * Initializes a multi-reader single-writer lock.
 	 */
 	public ReadWriteLock() {
+		mutex = new ReentrantLock();
+		readable = mutex.newCondition();
+		writable = mutex.newCondition();
+		holds = ThreadLocal.withInitial(() -> new int[1]);
 		readers = 0;
-		writers = 0;
+		waitingWriters = 0;
+		writer = null;
+		writes = 0;
 	}
 
 	/**
-	 * Will wait until there are no active writers in the system, and then will
-	 * increase the number of active readers.
+	 * Will wait until there are no active or waiting writers in the system, and
+	 * then will increase the number of active readers. A thread that already
+	 * holds the read or write lock does not wait.
 	 */
-	public synchronized void lockReadOnly() {
-		while (writers > 0) {
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
-				log.trace(e.getStackTrace());
+	public void lockReadOnly() {
+		int[] held = holds.get();
+		mutex.lock();
+		try {
+			if (held[0] == 0 && writer != Thread.currentThread()) {
+				while (writer != null || waitingWriters > 0) {
+					readable.awaitUninterruptibly();
+				}
 			}
+			readers++;
+			held[0]++;
+		} finally {
+			mutex.unlock();
 		}
-		readers++;
 	}
 
 	/**
-	 * Will decrease the number of active readers, and notify any waiting
-	 * threads if necessary.
+	 * Will decrease the number of active readers, and wake a waiting writer if
+	 * there are no readers left.
 	 */
-	public synchronized void unlockReadOnly() {
-		readers--;
+	public void unlockReadOnly() {
+		int[] held = holds.get();
+		mutex.lock();
 		try {
-			if (readers == 0) {
-				this.notifyAll();
+			if (held[0] == 0) {
+				throw new IllegalMonitorStateException("Read lock not held");
 			}
-		} catch (IllegalMonitorStateException e) {
-			log.trace(e.getStackTrace());
+			held[0]--;
+			readers--;
+			if (readers == 0 && waitingWriters > 0) {
+				writable.signal();
+			}
+		} finally {
+			mutex.unlock();
 		}
 	}
 
 	/**
 	 * Will wait until there are no active readers or writers in the system, and
-	 * then will increase the number of active writers.
+	 * then will make the current thread the active writer. A thread that
+	 * already holds the write lock does not wait.
+	 *
+	 * @throws IllegalMonitorStateException
+	 *             if the current thread holds only the read lock, since waiting
+	 *             for itself to release it would never return
 	 */
-	public synchronized void lockReadWrite() {
-		while (readers > 0 || writers > 0) {
+	public void lockReadWrite() {
+		Thread current = Thread.currentThread();
+		mutex.lock();
+		try {
+			if (writer == current) {
+				writes++;
+				return;
+			}
+			if (holds.get()[0] > 0) {
+				throw new IllegalMonitorStateException("Cannot upgrade a read lock");
+			}
+
+			waitingWriters++;
 			try {
-				log.debug(readers + writers);
-				this.wait();
-			} catch (InterruptedException e) {
-				log.trace(e);
+				while (readers > 0 || writer != null) {
+					writable.awaitUninterruptibly();
+				}
+			} finally {
+				waitingWriters--;
 			}
+
+			writer = current;
+			writes = 1;
+		} finally {
+			mutex.unlock();
 		}
-		writers++;
 	}
 
 	/**
-	 * Will decrease the number of active writers, and notify any waiting
-	 * threads if necessary.
+	 * Will release the write lock once the writer has released every hold,
+	 * and hand the lock to the next waiting writer if there is one, or to every
+	 * waiting reader otherwise.
 	 */
-	public synchronized void unlockReadWrite() {
-		writers--;
+	public void unlockReadWrite() {
+		mutex.lock();
 		try {
-			this.notifyAll();
-		} catch (IllegalMonitorStateException e) {
-			log.trace(e.getStackTrace());
+			if (writer != Thread.currentThread()) {
+				throw new IllegalMonitorStateException("Write lock not held");
+			}
+			if (--writes > 0) {
+				return;
+			}
+
+			writer = null;
+			if (waitingWriters > 0) {
+				writable.signal();
+			} else {
+				readable.signalAll();
+			}
+		} finally {
+			mutex.unlock();
 		}
 	}
 }
@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Accumulates the search results of a query as parallel arrays indexed by the
+ * document IDs of an index, instead of a map of {@link SearchResult} objects.
+ * Each thread reuses its own accumulator, so scoring a query allocates nothing
+ * until the final sorted results are created, however many documents match.
+ *
+ * Only the documents touched by a query are cleared afterwards, so the cost of
+ * a query depends on its matches rather than the size of the index.
+ */
+public class ResultAccumulator {
+
+	/** The accumulator of each thread. */
+	private static final ThreadLocal<ResultAccumulator> LOCAL = ThreadLocal.withInitial(ResultAccumulator::new);
+
+	private int[] frequency;
+	private int[] position;
+	private String[] path;
+	private int[] touched;
+	private int size;
+
+	/**
+	 * Initializes an empty accumulator.
+	 */
+	public ResultAccumulator() {
+		frequency = new int[16];
+		position = new int[16];
+		path = new String[16];
+		touched = new int[16];
+		size = 0;
+	}
+
+	/**
+	 * Returns the accumulator of the current thread, ready for a new query.
+	 *
+	 * @return empty accumulator
+	 */
+	public static ResultAccumulator get() {
+		ResultAccumulator accumulator = LOCAL.get();
+		accumulator.clear();
+		return accumulator;
+	}
+
+	/**
+	 * Adds matches in a document: adds the frequency, and keeps the earliest
+	 * position.
+	 *
+	 * @param document
+	 *            document ID
+	 * @param count
+	 *            number of matches
+	 * @param first
+	 *            position of the first match
+	 * @param filename
+	 *            path of the document
+	 */
+	public void add(int document, int count, int first, String filename) {
+		if (document >= frequency.length) {
+			ensureCapacity(document + 1);
+		}
+
+		if (frequency[document] == 0) {
+			touched[size++] = document;
+			frequency[document] = count;
+			position[document] = first;
+			path[document] = filename;
+		} else {
+			frequency[document] += count;
+			if (first < position[document]) {
+				position[document] = first;
+			}
+		}
+	}
+
+	/**
+	 * Adds a search result of a lookup.
+	 *
+	 * @param result
+	 *            result with a document ID
+	 * @throws IllegalArgumentException
+	 *             if the result was not created by an index, and so has no
+	 *             document ID
+	 */
+	public void add(SearchResult result) {
+		if (result.getDocument() < 0) {
+			throw new IllegalArgumentException("Search result has no document ID: " + result.getPath());
+		}
+		add(result.getDocument(), result.getFrequency(), result.getInitialPosition(), result.getPath());
+	}
+
+	/**
+	 * Returns the number of documents matched so far.
+	 *
+	 * @return number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sorts the matched documents by frequency, then position, then path, and
+	 * creates their search results. The accumulator is cleared afterwards.
+	 *
+	 * @return sorted search results
+	 */
+	public ArrayList<SearchResult> results() {
+		sort(0, size, new int[size]);
+
+		ArrayList<SearchResult> results = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			int document = touched[i];
+			results.add(new SearchResult(frequency[document], position[document], path[document], document));
+		}
+		clear();
+		return results;
+	}
+
+	/**
+	 * Resets the documents touched by the last query.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			frequency[touched[i]] = 0;
+			path[touched[i]] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Grows the arrays to hold the given number of document IDs.
+	 */
+	private void ensureCapacity(int documents) {
+		if (documents > frequency.length) {
+			int length = Math.max(documents, frequency.length * 2);
+			frequency = Arrays.copyOf(frequency, length);
+			position = Arrays.copyOf(position, length);
+			path = Arrays.copyOf(path, length);
+			touched = Arrays.copyOf(touched, length);
+		}
+	}
+
+	/**
+	 * Compares two documents in the order of {@link SearchResult#compareTo}.
+	 */
+	private int compare(int a, int b) {
+		if (frequency[a] != frequency[b]) {
+			return Integer.compare(frequency[b], frequency[a]);
+		}
+		if (position[a] != position[b]) {
+			return Integer.compare(position[a], position[b]);
+		}
+		return path[a].compareTo(path[b]);
+	}
+
+	/**
+	 * Merge sorts the touched documents between start and end.
+	 */
+	private void sort(int start, int end, int[] buffer) {
+		if (end - start < 2) {
+			return;
+		}
+		int middle = (start + end) >>> 1;
+		sort(start, middle, buffer);
+		sort(middle, end, buffer);
+
+		if (compare(touched[middle - 1], touched[middle]) <= 0) {
+			return;
+		}
+
+		System.arraycopy(touched, start, buffer, start, end - start);
+		int left = start;
+		int right = middle;
+		for (int i = start; i < end; i++) {
+			if (right >= end || (left < middle && compare(buffer[left], buffer[right]) <= 0)) {
+				touched[i] = buffer[left++];
+			} else {
+				touched[i] = buffer[right++];
+			}
+		}
+	}
+}
@@ -2,6 +2,7 @@ public class SearchResult implements Comparable<SearchResult> {
 	private int frequency;
 	private int initialPosition;
 	private final String path;
+	private final int document;
 
 	/**
 	 * Creates a search result object with given parameters frequency,
@@ -12,9 +13,34 @@ public class SearchResult implements Comparable<SearchResult> {
 	 * @param path
 	 */
 	public SearchResult(int frequency, int initialPosition, String path) {
+		this(frequency, initialPosition, path, -1);
+	}
+
+	/**
+	 * Creates a search result for a document of an index, identified by the
+	 * document ID the index assigned to its path
+	 * 
+	 * @param frequency
+	 * @param initialPosition
+	 * @param path
+	 * @param document
+	 *            document ID, or -1 if unknown
+	 */
+	public SearchResult(int frequency, int initialPosition, String path, int document) {
 		this.frequency = frequency;
 		this.initialPosition = initialPosition;
 		this.path = path;
+		this.document = document;
+	}
+
+	/**
+	 * Creates a copy of a search result, which can be updated without
+	 * affecting the original
+	 * 
+	 * @param other
+	 */
+	public SearchResult(SearchResult other) {
+		this(other.frequency, other.initialPosition, other.path, other.document);
 	}
 
 	/**
@@ -46,6 +72,16 @@ public class SearchResult implements Comparable<SearchResult> {
 		}
 	}
 
+	/**
+	 * Updates the SearchResult with the frequency and initial position of
+	 * another result for the same path
+	 * 
+	 * @param other
+	 */
+	public void update(SearchResult other) {
+		update(other.frequency, other.initialPosition);
+	}
+
 	/**
 	 * Returns string representation of path
 	 * 
@@ -56,21 +92,30 @@ public class SearchResult implements Comparable<SearchResult> {
 	}
 
 	/**
-	 * Returns string representation of frequency
+	 * Returns the frequency
 	 * 
-	 * @return
+	 * @return number of matches
 	 */
-	public String getFrequency() {
-		return String.valueOf(frequency);
+	public int getFrequency() {
+		return frequency;
 	}
 
 	/**
-	 * Returns string representation of initial position
+	 * Returns the initial position
 	 * 
-	 * @return
+	 * @return position of the first match
+	 */
+	public int getInitialPosition() {
+		return initialPosition;
+	}
+
+	/**
+	 * Returns the document ID the index assigned to the path
+	 * 
+	 * @return document ID, or -1 if unknown
 	 */
-	public String getInitialPosition() {
-		return String.valueOf(initialPosition);
+	public int getDocument() {
+		return document;
 	}
 
 }
\ No newline at end of file
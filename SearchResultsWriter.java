@@ -0,0 +1,86 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Writes search results to a JSON file one query at a time, in the same format
+ * as {@link JSONWriter#asSearchResults(java.util.SortedMap, Path)}, so results
+ * do not have to be kept in memory until every query is searched. Queries are
+ * written in the order they are given rather than sorted, and a query already
+ * written is skipped.
+ */
+public class SearchResultsWriter implements Closeable {
+
+	private final BufferedWriter writer;
+	private final HashSet<String> written;
+
+	/**
+	 * Creates the file and starts the JSON array.
+	 *
+	 * @param path
+	 *            file to write
+	 * @throws IOException
+	 */
+	public SearchResultsWriter(Path path) throws IOException {
+		writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		written = new HashSet<>();
+		writer.write("[" + "\n");
+	}
+
+	/**
+	 * Tests whether the query was already written, in which case its results
+	 * need not be searched again.
+	 *
+	 * @param query
+	 * @return true if the query was written
+	 */
+	public boolean contains(String query) {
+		return written.contains(query);
+	}
+
+	/**
+	 * Writes the results of a query unless the query was already written.
+	 *
+	 * @param query
+	 * @param results
+	 * @throws IOException
+	 */
+	public void write(String query, List<SearchResult> results) throws IOException {
+		if (!written.add(query)) {
+			return;
+		}
+		if (written.size() > 1) {
+			writer.write("," + "\n");
+		}
+		JSONWriter.asSearchResult(query, results, writer);
+	}
+
+	/**
+	 * Returns the number of queries written.
+	 *
+	 * @return number of queries
+	 */
+	public int size() {
+		return written.size();
+	}
+
+	/**
+	 * Ends the JSON array and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!written.isEmpty()) {
+				writer.write("\n");
+			}
+			writer.write("]");
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.apache.logging.log4j.LogManager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves searches of an index over HTTP using the JDK's built-in server.
+ * Requests are handled by a work queue, and connections are kept alive between
+ * requests.
+ *
+ * A search is a GET request to /search with the query in the "q" parameter,
+ * and optionally "exact=true" for an exact search. The response is a JSON array
+ * holding the query and its results in the same format as the -results file.
+ * With "fuzzy=1" or "fuzzy=2" the words within that edit distance of each query
+ * word are searched instead, and "fuzzy=0" turns off a default distance set on
+ * the query helper. Searches go through the query helper, so they use its
+ * cache and timeout. If the search ran out of time the response has an
+ * "X-Truncated: true" header.
+ *
+ * Typeahead suggestions are a GET request to /suggest with the text typed so
+ * far in the "q" parameter, and optionally the number of suggestions in
+ * "limit". The last word of the text is completed with the words of the index
+ * that appear in the most files.
+ */
+public class SearchServer {
+	public static final org.apache.logging.log4j.Logger logger = LogManager.getLogger();
+
+	/** The default port to listen on. */
+	public static final int DEFAULT_PORT = 8080;
+
+	/** Number of connections that may wait to be accepted. */
+	private static final int BACKLOG = 1024;
+
+	private final HttpServer server;
+	private final InvertedIndexThreadSafe index;
+	private final QueryHelperMultithreaded searcher;
+
+	/**
+	 * Creates a server for the index, which is not started until
+	 * {@link #start()} is called.
+	 *
+	 * @param port
+	 *            port to listen on
+	 * @param index
+	 *            index to suggest words from, the same one the searcher
+	 *            searches
+	 * @param searcher
+	 *            helper used to search each request
+	 * @param workers
+	 *            work queue used to handle requests
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public SearchServer(int port, InvertedIndexThreadSafe index, QueryHelperMultithreaded searcher,
+			WorkQueue workers) throws IOException {
+		this.index = index;
+		this.searcher = searcher;
+
+		// the JDK server writes headers and body separately, which stalls on
+		// delayed acknowledgements unless Nagle's algorithm is disabled
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+
+		server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+		server.createContext("/search", new SearchHandler());
+		server.createContext("/suggest", new SuggestHandler());
+		server.setExecutor(workers);
+	}
+
+	/**
+	 * Starts accepting requests in the background.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, and waits briefly for requests in progress.
+	 */
+	public void stop() {
+		server.stop(1);
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 *
+	 * @return port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Parses the parameters of a request's query string.
+	 *
+	 * @param rawQuery
+	 *            encoded query string, or null
+	 * @return parameter names mapped to decoded values
+	 */
+	public static HashMap<String, String> parseParameters(String rawQuery) {
+		HashMap<String, String> parameters = new HashMap<>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+
+		for (String pair : rawQuery.split("&")) {
+			int equals = pair.indexOf('=');
+			String name = (equals < 0) ? pair : pair.substring(0, equals);
+			String value = (equals < 0) ? "" : pair.substring(equals + 1);
+			try {
+				parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+			} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+				logger.debug(e);
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Sends a response with the given status and body.
+	 */
+	private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Handles suggestions.
+	 */
+	private class SuggestHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!exchange.getRequestMethod().equals("GET")) {
+					exchange.getResponseHeaders().set("Allow", "GET");
+					respond(exchange, 405, "text/plain", "Method not allowed\n");
+					return;
+				}
+
+				HashMap<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+				String line = parameters.get("q");
+				if (line == null) {
+					respond(exchange, 400, "text/plain", "Missing q parameter\n");
+					return;
+				}
+
+				int limit = TermTrie.DEFAULT_SIZE;
+				if (parameters.containsKey("limit")) {
+					try {
+						limit = Integer.parseInt(parameters.get("limit"));
+					} catch (NumberFormatException e) {
+						respond(exchange, 400, "text/plain", "Invalid limit parameter\n");
+						return;
+					}
+				}
+
+				// complete the last word typed
+				String[] words = WordParser.parseWords(line);
+				String prefix = (words.length == 0) ? "" : words[words.length - 1];
+				LinkedHashMap<String, Integer> suggestions = index.suggest(prefix, limit);
+
+				StringWriter writer = new StringWriter();
+				JSONWriter.asSuggestions(prefix, suggestions, writer);
+				respond(exchange, 200, "application/json", writer.toString());
+
+			} catch (RuntimeException e) {
+				logger.debug(e);
+				respond(exchange, 500, "text/plain", "Suggestion failed\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Handles searches.
+	 */
+	private class SearchHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!exchange.getRequestMethod().equals("GET")) {
+					exchange.getResponseHeaders().set("Allow", "GET");
+					respond(exchange, 405, "text/plain", "Method not allowed\n");
+					return;
+				}
+
+				HashMap<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+				String line = parameters.get("q");
+				if (line == null) {
+					respond(exchange, 400, "text/plain", "Missing q parameter\n");
+					return;
+				}
+				boolean exact = Boolean.parseBoolean(parameters.get("exact"));
+				int fuzzy = searcher.getFuzzy();
+				if (parameters.containsKey("fuzzy")) {
+					try {
+						fuzzy = Math.min(Math.max(0, Integer.parseInt(parameters.get("fuzzy"))),
+								InvertedIndex.MAX_DISTANCE);
+					} catch (NumberFormatException e) {
+						respond(exchange, 400, "text/plain", "Invalid fuzzy parameter\n");
+						return;
+					}
+				}
+
+				String[] parsedLine = WordParser.parseWords(line);
+				Arrays.sort(parsedLine);
+				String query = String.join(" ", parsedLine);
+
+				QueryBudget budget = QueryBudget.of(searcher.getTimeout());
+				ArrayList<SearchResult> results = (parsedLine.length == 0) ? new ArrayList<>()
+						: searcher.search(parsedLine, exact, fuzzy, budget);
+
+				StringWriter writer = new StringWriter();
+				writer.write("[" + "\n");
+				JSONWriter.asSearchResult(query, results, writer);
+				writer.write("\n" + "]");
+
+				if (QueryBudget.isTruncated(budget)) {
+					exchange.getResponseHeaders().set("X-Truncated", "true");
+				}
+				respond(exchange, 200, "application/json", writer.toString());
+
+			} catch (RuntimeException e) {
+				logger.debug(e);
+				respond(exchange, 500, "text/plain", "Search failed\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Detects near-duplicate documents using 64-bit SimHash fingerprints. Two
+ * documents are near-duplicates if their fingerprints differ in at most the
+ * configured number of bits.
+ *
+ * Fingerprints are stored in a multi-index table: each fingerprint is split
+ * into one more block than the allowed distance, and indexed by each block. By
+ * the pigeonhole principle any fingerprint within the distance shares at least
+ * one block exactly, so a lookup only compares against the few fingerprints
+ * sharing a block instead of every stored fingerprint.
+ */
+public class SimHash {
+
+	/** The default maximum number of differing bits for near-duplicates. */
+	public static final int DEFAULT_DISTANCE = 3;
+
+	private final int distance;
+	private final int[] shifts;
+	private final long[] masks;
+	private final ArrayList<HashMap<Long, ArrayList<Long>>> tables;
+	private int size;
+
+	/**
+	 * Initializes an empty table using the default distance.
+	 *
+	 * @see #DEFAULT_DISTANCE
+	 */
+	public SimHash() {
+		this(DEFAULT_DISTANCE);
+	}
+
+	/**
+	 * Initializes an empty table.
+	 *
+	 * @param distance
+	 *            maximum number of differing bits for two fingerprints to be
+	 *            considered near-duplicates; between 0 and 63
+	 */
+	public SimHash(int distance) {
+		this.distance = Math.max(0, Math.min(63, distance));
+
+		int blocks = this.distance + 1;
+		shifts = new int[blocks];
+		masks = new long[blocks];
+		tables = new ArrayList<>(blocks);
+
+		for (int i = 0; i < blocks; i++) {
+			int start = i * 64 / blocks;
+			int end = (i + 1) * 64 / blocks;
+			shifts[i] = start;
+			masks[i] = (end - start == 64) ? -1L : (1L << (end - start)) - 1;
+			tables.add(new HashMap<>());
+		}
+		size = 0;
+	}
+
+	/**
+	 * Computes the SimHash fingerprint of the words. Every occurrence of a word
+	 * votes on each bit according to the word's hash; a fingerprint bit is set
+	 * if more occurrences voted for it than against it.
+	 *
+	 * @param words
+	 *            words of the document, in any order
+	 * @return 64-bit fingerprint
+	 */
+	public static long fingerprint(String[] words) {
+		int[] votes = new int[64];
+		HashMap<String, Long> hashes = new HashMap<>();
+
+		for (String word : words) {
+			Long hash = hashes.get(word);
+			if (hash == null) {
+				hash = URLSeenSet.fingerprint(word);
+				hashes.put(word, hash);
+			}
+
+			long bits = hash;
+			for (int bit = 0; bit < 64; bit++) {
+				votes[bit] += ((bits >>> bit) & 1) == 1 ? 1 : -1;
+			}
+		}
+
+		long fingerprint = 0;
+		for (int bit = 0; bit < 64; bit++) {
+			if (votes[bit] > 0) {
+				fingerprint |= 1L << bit;
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the number of bits that differ between two fingerprints.
+	 *
+	 * @param a
+	 * @param b
+	 * @return hamming distance between the fingerprints
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Tests whether a stored fingerprint is within the distance of the given
+	 * one.
+	 *
+	 * @param fingerprint
+	 * @return true if a near-duplicate has been stored
+	 */
+	public synchronized boolean contains(long fingerprint) {
+		for (int i = 0; i < tables.size(); i++) {
+			ArrayList<Long> candidates = tables.get(i).get(block(fingerprint, i));
+			if (candidates != null) {
+				for (long candidate : candidates) {
+					if (distance(candidate, fingerprint) <= distance) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stores the fingerprint unless a near-duplicate is already stored.
+	 *
+	 * @param fingerprint
+	 * @return true if the fingerprint was stored, false if it is a
+	 *         near-duplicate of a stored fingerprint
+	 */
+	public synchronized boolean add(long fingerprint) {
+		if (contains(fingerprint)) {
+			return false;
+		}
+
+		for (int i = 0; i < tables.size(); i++) {
+			Long key = block(fingerprint, i);
+			ArrayList<Long> bucket = tables.get(i).get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<>(1);
+				tables.get(i).put(key, bucket);
+			}
+			bucket.add(fingerprint);
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * Returns the number of fingerprints stored.
+	 *
+	 * @return number of fingerprints
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SimHash[distance=" + distance + ", size=" + size + "]";
+	}
+
+	/**
+	 * Returns the bits of the fingerprint in the given block.
+	 */
+	private long block(long fingerprint, int i) {
+		return (fingerprint >>> shifts[i]) & masks[i];
+	}
+}
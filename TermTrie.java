@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * A trie of the words of an index, where every node keeps the most frequent
+ * words below it: the words with the highest document frequency (the number of
+ * files they appear in), ties broken alphabetically. Completions of any prefix
+ * are read straight from the node of the prefix, without visiting the words
+ * below it or their postings.
+ *
+ * The trie also finds the words within an edit distance of a misspelled word,
+ * by walking it with one row of the Levenshtein distance table per node, and
+ * skipping every branch whose row is already over the distance.
+ *
+ * Document frequencies only grow as files are added, so a built trie is kept
+ * current with {@link #update(String, int)} instead of being rebuilt. Once a
+ * frequency drops, the best words of a node may be missing, and the trie must
+ * be built again.
+ */
+public class TermTrie {
+
+	/** The default number of completions kept for each prefix. */
+	public static final int DEFAULT_SIZE = 10;
+
+	private final Node root;
+	private final int size;
+	private int words;
+
+	/**
+	 * Initializes an empty trie.
+	 *
+	 * @param size
+	 *            number of completions kept for each prefix
+	 */
+	public TermTrie(int size) {
+		this.root = new Node();
+		this.size = Math.max(1, size);
+		this.words = 0;
+	}
+
+	/**
+	 * Adds a word and its document frequency. Adding words in sorted order,
+	 * as they are stored in the index, avoids shifting children of the nodes.
+	 *
+	 * @param word
+	 * @param count
+	 *            number of files the word appears in
+	 */
+	public void add(String word, int count) {
+		Node node = root;
+		node.offer(word, count, size);
+		for (int i = 0; i < word.length(); i++) {
+			node = node.child(word.charAt(i));
+			node.offer(word, count, size);
+		}
+		node.word = word;
+		words++;
+	}
+
+	/**
+	 * Raises the document frequency of a word after a file was added to it,
+	 * adding the word if it is new. Only the nodes along the word change.
+	 *
+	 * @param word
+	 * @param count
+	 *            number of files the word appears in now, no less than before
+	 */
+	public void update(String word, int count) {
+		Node node = root;
+		node.raise(word, count, size);
+		for (int i = 0; i < word.length(); i++) {
+			node = node.child(word.charAt(i));
+			node.raise(word, count, size);
+		}
+		if (node.word == null) {
+			node.word = word;
+			words++;
+		}
+	}
+
+	/**
+	 * Returns the most frequent words starting with the prefix, most frequent
+	 * first.
+	 *
+	 * @param prefix
+	 *            cleaned prefix, which may be empty
+	 * @param limit
+	 *            maximum number of words, at most the size of the trie
+	 * @return words mapped to their document frequency, in order
+	 */
+	public LinkedHashMap<String, Integer> suggest(String prefix, int limit) {
+		LinkedHashMap<String, Integer> suggestions = new LinkedHashMap<>();
+
+		Node node = root;
+		for (int i = 0; i < prefix.length() && node != null; i++) {
+			node = node.find(prefix.charAt(i));
+		}
+		if (node == null) {
+			return suggestions;
+		}
+
+		for (int i = 0; i < Math.min(limit, node.count); i++) {
+			suggestions.put(node.top[i], node.counts[i]);
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Returns every word within the edit distance of the given word: the words
+	 * that can be turned into it by inserting, deleting or replacing at most
+	 * that many characters.
+	 *
+	 * @param word
+	 *            cleaned word, possibly misspelled
+	 * @param distance
+	 *            maximum number of edits
+	 * @return matching words in sorted order
+	 */
+	public ArrayList<String> within(String word, int distance) {
+		ArrayList<String> matches = new ArrayList<>();
+
+		// one row per depth, reused by every node at that depth
+		int[][] rows = new int[word.length() + distance + 2][word.length() + 1];
+		for (int i = 0; i <= word.length(); i++) {
+			rows[0][i] = i;
+		}
+		for (int i = 0; i < root.length; i++) {
+			within(root.children[i], root.keys[i], word, rows, 1, distance, matches);
+		}
+		return matches;
+	}
+
+	/**
+	 * Computes the row of the distance table for a node from the row of its
+	 * parent, and continues below the node while some prefix of the word is
+	 * still within the distance. A node deeper than the word plus the distance
+	 * is never reached, since its row is over the distance.
+	 */
+	private static void within(Node node, char key, String word, int[][] rows, int depth, int distance,
+			ArrayList<String> matches) {
+		int[] previous = rows[depth - 1];
+		int[] row = rows[depth];
+		row[0] = previous[0] + 1;
+		int minimum = row[0];
+
+		for (int i = 1; i < row.length; i++) {
+			int replace = previous[i - 1] + ((word.charAt(i - 1) == key) ? 0 : 1);
+			row[i] = Math.min(replace, Math.min(row[i - 1] + 1, previous[i] + 1));
+			minimum = Math.min(minimum, row[i]);
+		}
+
+		if (node.word != null && row[row.length - 1] <= distance) {
+			matches.add(node.word);
+		}
+		if (minimum <= distance) {
+			for (int i = 0; i < node.length; i++) {
+				within(node.children[i], node.keys[i], word, rows, depth + 1, distance, matches);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of completions kept for each prefix.
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "TermTrie[words=" + words + ", size=" + size + "]";
+	}
+
+	/**
+	 * A node of the trie. Children are kept in arrays sorted by character, and
+	 * the best words in arrays that grow up to the size of the trie.
+	 */
+	private static class Node {
+		private static final char[] NO_KEYS = new char[0];
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		private char[] keys = NO_KEYS;
+		private Node[] children = NO_CHILDREN;
+		private int length = 0;
+
+		private String[] top = new String[1];
+		private int[] counts = new int[1];
+		private int count = 0;
+
+		/** The word ending at this node, if any. */
+		private String word = null;
+
+		/**
+		 * Returns the child for the character, or null if there is none.
+		 */
+		private Node find(char c) {
+			int i = Arrays.binarySearch(keys, 0, length, c);
+			return (i >= 0) ? children[i] : null;
+		}
+
+		/**
+		 * Returns the child for the character, adding it if there is none.
+		 */
+		private Node child(char c) {
+			if (length > 0 && keys[length - 1] == c) {
+				return children[length - 1];
+			}
+			int i = (length == 0 || keys[length - 1] < c) ? -(length + 1) : Arrays.binarySearch(keys, 0, length, c);
+			if (i >= 0) {
+				return children[i];
+			}
+
+			i = -(i + 1);
+			if (length == keys.length) {
+				int grown = Math.max(2, length * 2);
+				keys = Arrays.copyOf(keys, grown);
+				children = Arrays.copyOf(children, grown);
+			}
+			System.arraycopy(keys, i, keys, i + 1, length - i);
+			System.arraycopy(children, i, children, i + 1, length - i);
+			keys[i] = c;
+			children[i] = new Node();
+			length++;
+			return children[i];
+		}
+
+		/**
+		 * Keeps the word if it is among the best words of this node.
+		 */
+		private void offer(String term, int frequency, int size) {
+			int i = count;
+			while (i > 0 && (frequency > counts[i - 1]
+					|| (frequency == counts[i - 1] && term.compareTo(top[i - 1]) < 0))) {
+				i--;
+			}
+			if (i >= size) {
+				return;
+			}
+
+			if (count < size) {
+				if (count == top.length) {
+					int grown = Math.min(size, top.length * 2);
+					top = Arrays.copyOf(top, grown);
+					counts = Arrays.copyOf(counts, grown);
+				}
+				count++;
+			}
+			System.arraycopy(top, i, top, i + 1, count - i - 1);
+			System.arraycopy(counts, i, counts, i + 1, count - i - 1);
+			top[i] = term;
+			counts[i] = frequency;
+		}
+
+		/**
+		 * Moves the word up to its higher frequency if it is among the best
+		 * words of this node, or offers it otherwise.
+		 */
+		private void raise(String term, int frequency, int size) {
+			for (int i = 0; i < count; i++) {
+				if (top[i].equals(term)) {
+					System.arraycopy(top, i + 1, top, i, count - i - 1);
+					System.arraycopy(counts, i + 1, counts, i, count - i - 1);
+					count--;
+					break;
+				}
+			}
+			offer(term, frequency, size);
+		}
+	}
+}
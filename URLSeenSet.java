@@ -0,0 +1,250 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A compact, lock-striped set of URLs used by the crawler to remember which
+ * pages have already been seen. URLs are normalized to strings and stored as
+ * 64-bit fingerprints, so membership tests never touch {@link URL#equals} or
+ * {@link URL#hashCode} (which may perform DNS lookups) and each URL costs
+ * roughly 8 to 16 bytes regardless of its length.
+ *
+ * Each stripe is an open-addressing table guarded by its own monitor, so
+ * threads adding URLs from different stripes never contend with each other.
+ */
+public class URLSeenSet {
+
+	/** Number of independent stripes; must be a power of two. */
+	private static final int STRIPES = 64;
+
+	/** Initial number of slots per stripe; must be a power of two. */
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Stripe[] stripes;
+	private final AtomicInteger size;
+
+	/**
+	 * Initializes an empty set.
+	 */
+	public URLSeenSet() {
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+		size = new AtomicInteger();
+	}
+
+	/**
+	 * Adds the URL to the set if it was not already present.
+	 *
+	 * @param url
+	 *            url to add
+	 * @return true if the url was not already in the set
+	 */
+	public boolean add(URL url) {
+		long fingerprint = fingerprint(normalize(url));
+		if (stripeFor(fingerprint).add(fingerprint)) {
+			size.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tests whether the URL has already been added to the set.
+	 *
+	 * @param url
+	 *            url to look for
+	 * @return true if the url is in the set
+	 */
+	public boolean contains(URL url) {
+		long fingerprint = fingerprint(normalize(url));
+		return stripeFor(fingerprint).contains(fingerprint);
+	}
+
+	/**
+	 * Returns the number of unique URLs in the set.
+	 *
+	 * @return number of urls
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Writes the fingerprints in this set to the output. Stripes are written
+	 * one at a time, so URLs added concurrently may or may not be included.
+	 *
+	 * @param out
+	 *            output to write to
+	 * @throws IOException
+	 * @see #read(DataInputStream)
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(stripes.length);
+		for (Stripe stripe : stripes) {
+			stripe.write(out);
+		}
+	}
+
+	/**
+	 * Adds the fingerprints previously written by
+	 * {@link #write(DataOutputStream)} to this set.
+	 *
+	 * @param in
+	 *            input to read from
+	 * @throws IOException
+	 */
+	public void read(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			int fingerprints = in.readInt();
+			for (int j = 0; j < fingerprints; j++) {
+				long fingerprint = in.readLong();
+				if (stripeFor(fingerprint).add(fingerprint)) {
+					size.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "URLSeenSet[size=" + size() + "]";
+	}
+
+	/**
+	 * Returns the stripe responsible for the fingerprint. Uses the high bits so
+	 * that the low bits remain well distributed within each stripe.
+	 *
+	 * @param fingerprint
+	 * @return stripe for the fingerprint
+	 */
+	private Stripe stripeFor(long fingerprint) {
+		return stripes[(int) (fingerprint >>> 58) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Normalizes the URL to a canonical string: lowercase protocol and host,
+	 * default ports removed, an empty path replaced by "/", and the fragment
+	 * dropped.
+	 *
+	 * @param url
+	 *            url to normalize
+	 * @return normalized url as a string
+	 */
+	public static String normalize(URL url) {
+		String protocol = url.getProtocol().toLowerCase();
+		String host = url.getHost().toLowerCase();
+		int port = url.getPort();
+		String path = url.getPath().isEmpty() ? "/" : url.getPath();
+
+		StringBuilder builder = new StringBuilder(protocol.length() + host.length() + path.length() + 16);
+		builder.append(protocol).append("://").append(host);
+		if (port >= 0 && port != url.getDefaultPort()) {
+			builder.append(':').append(port);
+		}
+		builder.append(path);
+		if (url.getQuery() != null) {
+			builder.append('?').append(url.getQuery());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Computes a 64-bit fingerprint of the text using FNV-1a followed by a
+	 * final avalanche mix. Never returns 0, which marks an empty slot.
+	 *
+	 * @param text
+	 *            text to fingerprint
+	 * @return non-zero 64-bit fingerprint
+	 */
+	public static long fingerprint(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * An open-addressing hash set of fingerprints using linear probing.
+	 */
+	private static class Stripe {
+		private long[] table;
+		private int count;
+
+		public Stripe() {
+			table = new long[INITIAL_CAPACITY];
+			count = 0;
+		}
+
+		public synchronized boolean add(long fingerprint) {
+			int slot = find(table, fingerprint);
+			if (table[slot] == fingerprint) {
+				return false;
+			}
+
+			table[slot] = fingerprint;
+			count++;
+
+			if (count * 4 > table.length * 3) {
+				resize();
+			}
+			return true;
+		}
+
+		public synchronized boolean contains(long fingerprint) {
+			return table[find(table, fingerprint)] == fingerprint;
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			long[] copy;
+			int copied;
+			synchronized (this) {
+				copy = table.clone();
+				copied = count;
+			}
+
+			out.writeInt(copied);
+			for (long fingerprint : copy) {
+				if (fingerprint != 0) {
+					out.writeLong(fingerprint);
+				}
+			}
+		}
+
+		/**
+		 * Returns the slot holding the fingerprint, or the empty slot where it
+		 * would be inserted.
+		 */
+		private static int find(long[] table, long fingerprint) {
+			int mask = table.length - 1;
+			int slot = (int) fingerprint & mask;
+			while (table[slot] != 0 && table[slot] != fingerprint) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void resize() {
+			long[] larger = new long[table.length * 2];
+			for (long fingerprint : table) {
+				if (fingerprint != 0) {
+					larger[find(larger, fingerprint)] = fingerprint;
+				}
+			}
+			table = larger;
+		}
+	}
+}
@@ -1,59 +1,448 @@
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.UnknownHostException;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Crawls web pages as a pipeline of three stages, each with its own pool of
+ * workers: fetching (I/O bound), parsing links and words (CPU bound), and
+ * adding words to the index. The parse and index queues should be bounded
+ * with the {@link WorkQueue.Policy#BLOCK} policy, so a slow stage makes the
+ * stages before it wait instead of buffering an unlimited number of pages in
+ * memory.
+ */
 public class WebCrawler {
-	private final WorkQueue queue;
+	public static final org.apache.logging.log4j.Logger logger = LogManager.getLogger();
+
+	/** The default number of pages that may wait for each stage. */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	private final WorkQueue.TaskGroup fetchers;
+	private final WorkQueue.TaskGroup parsers;
+	private final WorkQueue.TaskGroup indexers;
 	private final InvertedIndexThreadSafe index;
-	private int max;
-	private HashSet<URL> urls;
+	private final AtomicInteger max;
+	private final AtomicInteger scheduled;
+	private final URLSeenSet urls;
+	private final CrawlFrontier frontier;
+	private final ReadWriteLock scheduling;
+	private CrawlCheckpoint checkpoint;
+	private long interval;
+	private SimHash duplicates;
+	private boolean recrawl;
+	private DNSCache dns;
+	private final AtomicInteger skipped;
+	private final AtomicInteger unchanged;
 
-	public WebCrawler(WorkQueue queue, InvertedIndex index, HashSet<URL> urls) {
-		this.queue = queue;
-		this.index = new InvertedIndexThreadSafe(index);
+	/**
+	 * Creates a crawler whose fetch, parse and index stages run on the given
+	 * work queues. The queues must be distinct. Each stage runs as a task group,
+	 * so the crawl only waits for its own pages, and the queues may be shared
+	 * with other work.
+	 *
+	 * @param fetchers
+	 *            work queue used to fetch pages
+	 * @param parsers
+	 *            work queue used to parse links and words from pages
+	 * @param indexers
+	 *            work queue used to add parsed pages to the index
+	 * @param index
+	 * @param urls
+	 * @param frontier
+	 */
+	public WebCrawler(WorkQueue fetchers, WorkQueue parsers, WorkQueue indexers, InvertedIndex index, URLSeenSet urls,
+			CrawlFrontier frontier) {
+		this.fetchers = fetchers.newGroup();
+		this.parsers = parsers.newGroup();
+		this.indexers = indexers.newGroup();
+		this.index = (index instanceof InvertedIndexThreadSafe) ? (InvertedIndexThreadSafe) index
+				: new InvertedIndexThreadSafe(index);
 		this.urls = urls;
-		max = 0;
+		this.frontier = frontier;
+		this.scheduling = new ReadWriteLock();
+		this.checkpoint = null;
+		this.interval = 0;
+		this.duplicates = null;
+		this.recrawl = false;
+		this.dns = null;
+		skipped = new AtomicInteger();
+		unchanged = new AtomicInteger();
+		max = new AtomicInteger();
+		scheduled = new AtomicInteger();
+	}
+
+	/**
+	 * Saves the crawl state to the checkpoint periodically while crawling. If
+	 * the checkpoint already holds a saved crawl, the next call to
+	 * {@link #crawl(URL, int)} resumes it instead of starting from the seed.
+	 *
+	 * @param checkpoint
+	 *            where to save the crawl state
+	 * @param seconds
+	 *            seconds between saves
+	 */
+	public void setCheckpoint(CrawlCheckpoint checkpoint, int seconds) {
+		this.checkpoint = checkpoint;
+		this.interval = seconds * 1000L;
+	}
+
+	/**
+	 * Re-crawls the pages finished by the crawl saved in the checkpoint
+	 * instead of resuming it. Each page is fetched with a conditional request
+	 * using its saved ETag and Last-Modified validators, and pages that are
+	 * unchanged (by status or by content hash) are neither parsed nor
+	 * re-indexed. Changed pages replace their previous version in the index.
+	 *
+	 * @param recrawl
+	 *            true to re-crawl the checkpoint on the next crawl
+	 * @see #setCheckpoint(CrawlCheckpoint, int)
+	 */
+	public void setRecrawl(boolean recrawl) {
+		this.recrawl = recrawl;
 	}
 
+	/**
+	 * Resolves hosts through the DNS cache, and resolves the hosts of newly
+	 * discovered links in the background before they are fetched.
+	 *
+	 * @param dns
+	 *            cache used to resolve hosts
+	 */
+	public void setDNSCache(DNSCache dns) {
+		this.dns = dns;
+	}
+
+	/**
+	 * Skips indexing pages whose words are nearly identical to a page already
+	 * indexed, such as mirrored or templated pages. Links on skipped pages are
+	 * still followed.
+	 *
+	 * @param duplicates
+	 *            fingerprints of the pages indexed so far
+	 */
+	public void setDuplicateDetection(SimHash duplicates) {
+		this.duplicates = duplicates;
+	}
+
+	/**
+	 * Crawls from the seed until the limit of pages is reached or no new
+	 * links are found. Pages are dispatched to the fetch stage from the
+	 * frontier as their hosts become ready.
+	 *
+	 * @param seed
+	 * @param limit
+	 */
 	public void crawl(URL seed, int limit) {
-		synchronized (urls) {
-			max += limit;
-			urls.add(seed);
-			queue.execute(new WebMinion(seed));
+		max.addAndGet(limit);
+
+		Checkpointer checkpointer = null;
+		if (checkpoint != null) {
+			try {
+				if (checkpoint.exists() && recrawl) {
+					// unchanged pages keep their indexed words, so their fingerprints are not needed
+					checkpoint.restoreIndex(index, null);
+					schedule(seed);
+					for (URL page : checkpoint.finished()) {
+						schedule(page);
+					}
+					System.out.println("Re-crawling " + frontier.size() + " pages");
+				} else if (checkpoint.exists()) {
+					scheduled.set(checkpoint.restore(index, urls, frontier, duplicates));
+					System.out.println("Resuming crawl with " + frontier.size() + " unfinished pages");
+				} else {
+					schedule(seed);
+				}
+			} catch (IOException e) {
+				System.out.println("~ Unable to restore crawl checkpoint ~");
+				schedule(seed);
+			}
+
+			checkpointer = new Checkpointer();
+			checkpointer.start();
+		} else {
+			schedule(seed);
+		}
+
+		URL url;
+		while ((url = frontier.take()) != null) {
+			fetchers.execute(new FetchMinion(url));
+		}
+
+		// the frontier only drains once every page has been indexed
+		fetchers.finish();
+		parsers.finish();
+		indexers.finish();
+
+		if (skipped.get() > 0) {
+			System.out.println("Skipped " + skipped.get() + " near-duplicate pages");
+		}
+		if (unchanged.get() > 0) {
+			System.out.println("Skipped " + unchanged.get() + " unchanged pages");
+		}
+
+		if (checkpointer != null) {
+			checkpointer.interrupt();
+			try {
+				checkpointer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			save();
+			try {
+				checkpoint.close();
+			} catch (IOException e) {
+				System.out.println("~ Unable to close crawl checkpoint ~");
+			}
+		}
+	}
+
+	/**
+	 * Saves the crawl state to the checkpoint. Scheduling is paused while the
+	 * seen set and frontier are captured, so that every seen page is either
+	 * finished or in the saved frontier.
+	 */
+	private void save() {
+		scheduling.lockReadWrite();
+		try {
+			List<URL> unfinished = frontier.snapshot();
+			checkpoint.save(urls, unfinished, scheduled.get());
+		} catch (IOException e) {
+			System.out.println("~ Unable to save crawl checkpoint ~");
+		} finally {
+			scheduling.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Adds the link to the frontier if it has not been seen before and the
+	 * crawl limit has not been reached.
+	 *
+	 * @param link
+	 * @return false if the crawl limit has been reached
+	 */
+	private boolean schedule(URL link) {
+		scheduling.lockReadOnly();
+		try {
+			if (!reserve()) {
+				return false;
+			}
+			if (urls.add(link)) {
+				if (dns != null) {
+					dns.prefetch(link.getHost());
+				}
+				frontier.add(link);
+			} else {
+				scheduled.decrementAndGet();
+			}
+			return true;
+		} finally {
+			scheduling.unlockReadOnly();
 		}
-		queue.finish();
 	}
 
-	private class WebMinion implements Runnable {
+	/**
+	 * Reserves room for one more page under the crawl limit.
+	 *
+	 * @return true if another page may be scheduled
+	 */
+	private boolean reserve() {
+		int current;
+		do {
+			current = scheduled.get();
+			if (current >= max.get()) {
+				return false;
+			}
+		} while (!scheduled.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/**
+	 * Saves the crawl state every interval until interrupted.
+	 */
+	private class Checkpointer extends Thread {
+
+		public Checkpointer() {
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {
+					return;
+				}
+				save();
+			}
+		}
+	}
+
+	/**
+	 * Fetches a single page and hands its HTML to the parse stage. If the page
+	 * was finished by a previous crawl, the request is conditional on the page
+	 * having changed since.
+	 */
+	private class FetchMinion implements Runnable {
+		private URL url;
+
+		public FetchMinion(URL url) {
+			this.url = url;
+		}
+
+		@Override
+		public void run() {
+			CrawlCheckpoint.Validators previous = (checkpoint != null) ? checkpoint.getValidators(url.toString())
+					: null;
+			boolean handedOff = false;
+
+			try {
+				HTTPResponse response = null;
+				try {
+					response = HTTPFetcher.fetch(url,
+							(previous != null) ? previous.conditionalHeaders() : Collections.emptyMap(), dns);
+				} catch (IOException | RuntimeException e) {
+					// a bad port or host fails here too, and must still finish the page
+					logger.warn("Unable to fetch {}", url, e);
+				}
+
+				if (response != null && response.isNotModified()) {
+					unchanged.incrementAndGet();
+				} else if (response != null && response.isHTML()) {
+					// blocks while the parse stage is full, holding this host's slot
+					parsers.execute(new ParseMinion(url, response, previous));
+					handedOff = true;
+				}
+			} finally {
+				if (!handedOff) {
+					frontier.finished(url);
+				}
+				frontier.fetched(url);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the links found on a page, and hands its words to the index
+	 * stage. If the task is dropped without running, the page is finished so
+	 * the crawl does not wait for it.
+	 */
+	private class ParseMinion implements Runnable, WorkQueue.Discardable {
 		private URL url;
+		private HTTPResponse response;
+		private CrawlCheckpoint.Validators previous;
 
-		public WebMinion(URL url) {
+		public ParseMinion(URL url, HTTPResponse response, CrawlCheckpoint.Validators previous) {
 			this.url = url;
+			this.response = response;
+			this.previous = previous;
+		}
+
+		@Override
+		public void discard() {
+			frontier.finished(url);
 		}
 
 		@Override
 		public void run() {
+			boolean handedOff = false;
 
 			try {
-				String html = HTTPFetcher.fetchHTML(url.toString());
-				synchronized (urls) {
-					for (URL link : LinkParser.listLinks(url, html)) {
-						if (urls.size() < max && !urls.contains(link)) {
-							System.out.println("size: " + urls.size());
-							urls.add(link);
-							queue.execute(new WebMinion(link));
+				String html = response.getBody();
+				CrawlCheckpoint.Validators current = CrawlCheckpoint.Validators.of(response);
+				response = null;
+
+				// servers without validators still send identical content
+				if (previous != null && previous.sameContent(current)) {
+					unchanged.incrementAndGet();
+					return;
+				}
+
+				for (URL link : LinkParser.listLinks(url, html)) {
+					if (!schedule(link)) {
+						break;
+					}
+				}
+
+				String[] words = WordParser.parseWords(HTMLCleaner.stripHTML(html));
+				html = null;
+
+				if (duplicates != null && words.length > 0 && !duplicates.add(SimHash.fingerprint(words))) {
+					skipped.incrementAndGet();
+
+					// a changed page is no longer indexed as it was
+					if (previous != null) {
+						index.remove(url.toString());
+					}
+					if (checkpoint != null) {
+						if (previous != null) {
+							checkpoint.record(url.toString(), new String[0]);
 						}
+						checkpoint.setValidators(url.toString(), current);
 					}
+					return;
+				}
+
+				InvertedIndex local = new InvertedIndex();
+				local.addAll(words, url.toString());
+				indexers.execute(new IndexMinion(url, words, local, current, previous != null));
+				handedOff = true;
+			} catch (IOException e) {
+				System.out.println("~ Unable to record page in crawl checkpoint ~");
+			} finally {
+				if (!handedOff) {
+					frontier.finished(url);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges a parsed page into the shared index, replacing its previous
+	 * version if it changed, and records it in the checkpoint if there is one.
+	 * If the task is dropped without running, the page is finished so the
+	 * crawl does not wait for it.
+	 */
+	private class IndexMinion implements Runnable, WorkQueue.Discardable {
+		private URL url;
+		private String[] words;
+		private InvertedIndex local;
+		private CrawlCheckpoint.Validators validators;
+		private boolean changed;
+
+		public IndexMinion(URL url, String[] words, InvertedIndex local, CrawlCheckpoint.Validators validators,
+				boolean changed) {
+			this.url = url;
+			this.words = words;
+			this.local = local;
+			this.validators = validators;
+			this.changed = changed;
+		}
+
+		@Override
+		public void discard() {
+			frontier.finished(url);
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (changed) {
+					index.remove(url.toString());
+				}
+				index.addAll(local);
+
+				if (checkpoint != null) {
+					checkpoint.record(url.toString(), words);
+					checkpoint.setValidators(url.toString(), validators);
 				}
-				index.addAll(WordParser.parseWords(HTMLCleaner.stripHTML(html)), url.toString());
-			} catch (UnknownHostException e) {
-				System.out.println("ISSUE WITH URL, PLEASE TRY AGAIN");
-			} catch (MalformedURLException e) {
-				System.out.println("ISSUE WITH URL, PLEASE TRY AGAIN");
 			} catch (IOException e) {
-				System.out.println("ISSUE WITH URL, PLEASE TRY AGAIN");
+				System.out.println("~ Unable to record page in crawl checkpoint ~");
+			} finally {
+				frontier.finished(url);
 			}
 		}
 	}
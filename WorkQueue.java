@@ -1,35 +1,130 @@
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BinaryOperator;
 
 import org.apache.logging.log4j.LogManager;
 
 /**
- * A simple work queue implementation based on the IBM developerWorks article by
- * Brian Goetz. It is up to the user of this class to keep track of whether
- * there is any pending work remaining.
+ * A work queue with a fixed pool of worker threads, originally based on the
+ * IBM developerWorks article by Brian Goetz. It is up to the user of this class
+ * to keep track of whether there is any pending work remaining.
+ *
+ * Work is scheduled by work stealing rather than a single shared list. Each
+ * worker has its own deque: work submitted by a worker is pushed onto that
+ * worker's deque, and work submitted by any other thread goes onto a shared
+ * lock-free queue. An idle worker takes work from its own deque first, then
+ * from the shared queue, and finally steals the oldest work from another
+ * worker. Idle workers are parked individually and a submission wakes at most
+ * one of them, so no thread contends on a single monitor or wakes up for work
+ * it will not get.
+ *
+ * By default the queue is unbounded. A bounded queue limits how many tasks may
+ * wait to be run, and applies a {@link Policy} when a task is submitted to a
+ * full queue, so that producers are throttled to the speed of the workers.
+ *
+ * Independent users of one queue can track their work separately with a
+ * {@link TaskGroup}, so that each waits for its own tasks instead of every task
+ * in the queue.
+ *
+ * Tasks that compute a value can be submitted as a {@link Callable}, which
+ * returns a {@link CompletableFuture} holding the value, so results can be
+ * returned directly instead of collected in shared state.
  *
  * @see <a href=
  *      "http://www.ibm.com/developerworks/library/j-jtp0730/index.html">Java
  *      Theory and Practice: Thread Pools and Work Queues</a>
  */
-public class WorkQueue {
-	private int pending;
+public class WorkQueue implements Executor {
 	public static final org.apache.logging.log4j.Logger logger = LogManager.getLogger();
 
+	/**
+	 * Longest time an idle worker parks before checking for work again. Only a
+	 * safety net; workers are normally woken as soon as work is submitted.
+	 */
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	/** Number of times an idle worker yields and looks again before parking. */
+	private static final int SPINS = 4;
+
+	/**
+	 * Deepest a thread nests tasks it runs itself because the queue is full.
+	 * Past this depth a worker adds the task to its own deque even though the
+	 * queue is full, and any other thread waits for room, so a task that keeps
+	 * submitting cannot overflow the stack.
+	 */
+	private static final int MAX_INLINE = 16;
+
+	/** Number of tasks each thread is running itself because a queue was full. */
+	private static final ThreadLocal<int[]> INLINE = ThreadLocal.withInitial(() -> new int[1]);
+
+	/** Number of submitted tasks that have not finished running. */
+	private final AtomicInteger pending;
+
 	/**
 	 * Pool of worker threads that will wait in the background until work is
 	 * available.
 	 */
 	private final PoolWorker[] workers;
 
-	/** Queue of pending work requests. */
-	private final LinkedList<Runnable> queue;
+	/** Queue of work submitted by threads outside of the pool. */
+	private final ConcurrentLinkedQueue<Runnable> submissions;
+
+	/** Workers that are parked waiting for work. */
+	private final ConcurrentLinkedQueue<PoolWorker> idle;
 
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
 
+	/** Maximum number of tasks waiting to be run, if bounded. */
+	private final int capacity;
+
+	/** What to do when a task is submitted to a full queue. */
+	private final Policy policy;
+
+	/** Number of tasks waiting to be run; only tracked if bounded. */
+	private final AtomicInteger queued;
+
+	/** Number of producers blocked waiting for room in the queue. */
+	private final AtomicInteger blocked;
+
 	/** The default number of threads to use when not specified. */
 	public static final int DEFAULT = 5;
 
+	/** What to do when a task is submitted to a full bounded queue. */
+	public enum Policy {
+		/**
+		 * Block the submitting thread until there is room. A worker of this
+		 * queue submitting to it runs the task itself instead, since blocking
+		 * every worker would leave no one to make room, or queues it past the
+		 * capacity if it is already running too many tasks itself.
+		 */
+		BLOCK,
+
+		/**
+		 * Run the task in the submitting thread, unless that thread is already
+		 * running too many tasks itself, in which case it blocks as above.
+		 */
+		CALLER_RUNS,
+
+		/**
+		 * Discard the oldest waiting task to make room for the new one, or wait
+		 * for room if the workers took every waiting task first.
+		 */
+		DROP_OLDEST
+	}
+
 	/**
 	 * Starts a work queue with the default number of threads.
 	 *
@@ -46,15 +141,38 @@ public class WorkQueue {
 	 *            number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
-		pending = 0;
-		this.queue = new LinkedList<Runnable>();
+		this(threads, Integer.MAX_VALUE, Policy.BLOCK);
+	}
+
+	/**
+	 * Starts a bounded work queue with the specified number of threads.
+	 *
+	 * @param threads
+	 *            number of worker threads; should be greater than 1
+	 * @param capacity
+	 *            maximum number of tasks waiting to be run
+	 * @param policy
+	 *            what to do when a task is submitted to a full queue
+	 */
+	public WorkQueue(int threads, int capacity, Policy policy) {
+		this.capacity = Math.max(1, capacity);
+		this.policy = policy;
+		this.queued = new AtomicInteger();
+		this.blocked = new AtomicInteger();
+		this.pending = new AtomicInteger();
+		this.submissions = new ConcurrentLinkedQueue<>();
+		this.idle = new ConcurrentLinkedQueue<>();
 		this.workers = new PoolWorker[threads];
 
 		this.shutdown = false;
 
-		// start the threads so they are waiting in the background
 		for (int i = 0; i < threads; i++) {
 			workers[i] = new PoolWorker();
+		}
+
+		// start the threads so they are waiting in the background, only once
+		// every worker exists since any of them may be stolen from
+		for (int i = 0; i < threads; i++) {
 			workers[i].start();
 		}
 	}
@@ -66,38 +184,306 @@ public class WorkQueue {
 	 * @param r
 	 *            work request (in the form of a {@link Runnable} object)
 	 */
+	@Override
 	public void execute(Runnable r) {
-		synchronized (queue) {
-			queue.addLast(r);
-			queue.notifyAll();
+		if (shutdown) {
+			// no worker is left to run it
+			discard(r);
+			return;
+		}
+		if (isBounded() && !reserve(r)) {
+			return;
+		}
+
+		// counted before it is visible to workers, so finish() cannot miss it
+		pending.incrementAndGet();
+
+		Thread current = Thread.currentThread();
+		if (current instanceof PoolWorker && ((PoolWorker) current).owner() == this) {
+			((PoolWorker) current).tasks.addFirst(r);
+		} else {
+			submissions.add(r);
+		}
+
+		if (shutdown) {
+			// shut down after the check above, so no worker may take it
+			drain();
+			return;
 		}
-		incrementPending();
+
+		PoolWorker sleeper = idle.poll();
+		if (sleeper != null) {
+			LockSupport.unpark(sleeper);
+		}
+	}
+
+	/**
+	 * Adds a work request that computes a value to the queue.
+	 *
+	 * @param task
+	 *            work request computing a value
+	 * @return future completed with the value, or exceptionally with whatever
+	 *         the task threw
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> task) {
+		return submit(this, task);
 	}
 
 	/**
-	 * Indicates that we now have additional "pending" work to wait for. We need
-	 * this since we can no longer call join() on the threads. (The threads keep
-	 * running forever in the background.)
+	 * Adds every work request to the queue.
 	 *
-	 * We made this a synchronized method in the outer class, since locking on
-	 * the "this" object within an inner class does not work.
+	 * @param tasks
+	 *            work requests computing values
+	 * @return futures for the values, in the same order as the tasks
 	 */
+	public <T> List<CompletableFuture<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+		return invokeAll(this, tasks);
+	}
+
+	/**
+	 * Combines the values of the futures pairwise as a balanced tree, so that
+	 * independent pairs are combined in parallel as soon as both values are
+	 * ready. The combiner may modify and return either argument.
+	 *
+	 * @param futures
+	 *            futures for the values to combine
+	 * @param combiner
+	 *            combines two values into one
+	 * @param executor
+	 *            runs the combining steps
+	 * @return future for the combined value, or for null if there were no
+	 *         futures
+	 */
+	public static <T> CompletableFuture<T> reduce(List<CompletableFuture<T>> futures, BinaryOperator<T> combiner,
+			Executor executor) {
+		if (futures.isEmpty()) {
+			return CompletableFuture.completedFuture(null);
+		}
 
-	private synchronized void incrementPending() {
-		pending++;
-		logger.debug(pending);
+		List<CompletableFuture<T>> level = futures;
+		while (level.size() > 1) {
+			List<CompletableFuture<T>> next = new ArrayList<>((level.size() + 1) / 2);
+			for (int i = 0; i + 1 < level.size(); i += 2) {
+				next.add(level.get(i).thenCombineAsync(level.get(i + 1), combiner, executor));
+			}
+			if (level.size() % 2 == 1) {
+				next.add(level.get(level.size() - 1));
+			}
+			level = next;
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * Waits for the value of a future, throwing whatever unchecked exception
+	 * the task threw instead of wrapping it in a {@link CompletionException}.
+	 * A task dropped without running throws a {@link CancellationException}.
+	 *
+	 * @param future
+	 *            future to wait for
+	 * @return value of the future
+	 */
+	public static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a work request that computes a value to the given executor.
+	 */
+	private static <T> CompletableFuture<T> submit(Executor executor, Callable<T> task) {
+		Completion<T> completion = new Completion<>(task);
+		executor.execute(completion);
+		return completion.future;
+	}
+
+	/**
+	 * Adds every work request to the given executor.
+	 */
+	private static <T> List<CompletableFuture<T>> invokeAll(Executor executor, Collection<? extends Callable<T>> tasks) {
+		List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(submit(executor, task));
+		}
+		return futures;
+	}
+
+	/**
+	 * Tests whether the number of waiting tasks is limited.
+	 *
+	 * @return true if the queue is bounded
+	 */
+	public boolean isBounded() {
+		return capacity < Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Reserves room for a task in a bounded queue, applying the policy if the
+	 * queue is full.
+	 *
+	 * @param r
+	 *            task being submitted
+	 * @return true if the task should be added to the queue, false if the
+	 *         policy already handled it
+	 */
+	private boolean reserve(Runnable r) {
+		while (true) {
+			int current = queued.get();
+			if (current < capacity) {
+				if (queued.compareAndSet(current, current + 1)) {
+					return true;
+				}
+				continue;
+			}
+
+			if (shutdown) {
+				discard(r);
+				return false;
+			}
+
+			Thread thread = Thread.currentThread();
+			boolean worker = thread instanceof PoolWorker && ((PoolWorker) thread).owner() == this;
+
+			if (policy == Policy.CALLER_RUNS || (policy == Policy.BLOCK && worker)) {
+				int[] depth = INLINE.get();
+				if (depth[0] < MAX_INLINE) {
+					depth[0]++;
+					try {
+						runInCaller(r);
+					} finally {
+						depth[0]--;
+					}
+					return false;
+				} else if (worker) {
+					// goes on this worker's own deque, past the capacity
+					queued.incrementAndGet();
+					return true;
+				}
+				awaitRoom();
+			} else if (policy == Policy.DROP_OLDEST) {
+				if (dropOldest()) {
+					// the dropped task's slot is handed to the new task
+					return true;
+				}
+				// every waiting task was just taken, so room is about to be made
+				awaitRoom();
+			} else {
+				awaitRoom();
+			}
+		}
+	}
+
+	/**
+	 * Runs a task in the submitting thread, treating it like any other task.
+	 *
+	 * @param r
+	 *            task to run
+	 */
+	private void runInCaller(Runnable r) {
+		pending.incrementAndGet();
+		try {
+			r.run();
+		} catch (RuntimeException ex) {
+			System.err.println("Warning: Work queue encountered an " + "exception while running.");
+			logger.debug(ex);
+		} finally {
+			decrementPending();
+		}
+	}
+
+	/**
+	 * Discards the oldest waiting task: the head of the shared queue, or if
+	 * that is empty the back of a worker's deque.
+	 *
+	 * @return true if a task was discarded
+	 */
+	private boolean dropOldest() {
+		Runnable dropped = submissions.poll();
+		for (int i = 0; dropped == null && i < workers.length; i++) {
+			dropped = workers[i].tasks.pollLast();
+		}
+
+		if (dropped == null) {
+			return false;
+		}
+		logger.debug("dropped {}", dropped);
+		discard(dropped);
+		decrementPending();
+		return true;
+	}
+
+	/**
+	 * Tells a task that it will never be run, if it needs to know.
+	 *
+	 * @param r
+	 *            task that is dropped
+	 */
+	private static void discard(Runnable r) {
+		if (r instanceof Discardable) {
+			((Discardable) r).discard();
+		}
+	}
+
+	/**
+	 * Creates a group for tracking a subset of the tasks run by this queue.
+	 *
+	 * @return new task group
+	 */
+	public TaskGroup newGroup() {
+		return new TaskGroup();
+	}
+
+	/**
+	 * Waits until a task is taken from a full queue, or the queue is shut
+	 * down.
+	 */
+	private void awaitRoom() {
+		blocked.incrementAndGet();
+		try {
+			synchronized (queued) {
+				while (queued.get() >= capacity && !shutdown) {
+					queued.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			System.err.println("Warning: Work queue interrupted.");
+			Thread.currentThread().interrupt();
+		} finally {
+			blocked.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Indicates that a worker took a waiting task, making room for a blocked
+	 * producer if there is one.
+	 */
+	private void taken() {
+		queued.decrementAndGet();
+		if (blocked.get() > 0) {
+			synchronized (queued) {
+				queued.notify();
+			}
+		}
 	}
 
 	/**
 	 * Indicates that we now have one less "pending" work, and will notify any
 	 * waiting threads if we no longer have any more pending work left.
 	 */
-	private synchronized void decrementPending() {
-		pending--;
-		if (pending <= 0) {
-			this.notifyAll();
+	private void decrementPending() {
+		if (pending.decrementAndGet() <= 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
 		}
-		logger.debug(pending);
 	}
 
 	/**
@@ -105,7 +491,7 @@ public class WorkQueue {
 	 */
 	public synchronized void finish() {
 		try {
-			while (pending > 0) {
+			while (pending.get() > 0) {
 				this.wait();
 			}
 
@@ -118,15 +504,53 @@ public class WorkQueue {
 
 	/**
 	 * Asks the queue to shutdown. Any unprocessed work will not be finished,
-	 * but threads in-progress will not be interrupted.
+	 * but threads in-progress will not be interrupted. Work still waiting is
+	 * discarded as if dropped, so nothing waits for it forever.
 	 */
 	public void shutdown() {
 		// safe to do unsynchronized due to volatile keyword
 		shutdown = true;
 
-		synchronized (queue) {
-			queue.notifyAll();
+		for (PoolWorker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+
+		synchronized (queued) {
+			queued.notifyAll();
 		}
+
+		drain();
+	}
+
+	/**
+	 * Discards every task still waiting in the shared queue and the deques of
+	 * the workers, once no worker will take them.
+	 */
+	private void drain() {
+		Runnable r;
+		while ((r = submissions.poll()) != null) {
+			abandon(r);
+		}
+		for (PoolWorker worker : workers) {
+			while ((r = worker.tasks.pollFirst()) != null) {
+				abandon(r);
+			}
+		}
+	}
+
+	/**
+	 * Discards a task taken from the queue after shutdown, instead of running
+	 * it.
+	 *
+	 * @param r
+	 *            task that will not be run
+	 */
+	private void abandon(Runnable r) {
+		if (isBounded()) {
+			taken();
+		}
+		discard(r);
+		decrementPending();
 	}
 
 	/**
@@ -138,6 +562,187 @@ public class WorkQueue {
 		return workers.length;
 	}
 
+	/**
+	 * Tasks executed through a group are run by the queue like any other task,
+	 * but also counted by the group, so {@link #finish()} only waits for the
+	 * group's own tasks. Groups are reusable; once finished, more tasks may be
+	 * added and waited for again.
+	 */
+	public class TaskGroup implements Executor {
+
+		/** Number of tasks in this group that have not finished running. */
+		private final AtomicInteger pending;
+
+		private TaskGroup() {
+			pending = new AtomicInteger();
+		}
+
+		/**
+		 * Adds a work request to the queue as part of this group.
+		 *
+		 * @param r
+		 *            work request (in the form of a {@link Runnable} object)
+		 */
+		@Override
+		public void execute(Runnable r) {
+			pending.incrementAndGet();
+			WorkQueue.this.execute(new GroupTask(this, r));
+		}
+
+		/**
+		 * Adds a work request that computes a value to the queue as part of
+		 * this group.
+		 *
+		 * @param task
+		 *            work request computing a value
+		 * @return future completed with the value, or exceptionally with
+		 *         whatever the task threw
+		 */
+		public <T> CompletableFuture<T> submit(Callable<T> task) {
+			return WorkQueue.submit(this, task);
+		}
+
+		/**
+		 * Adds every work request to the queue as part of this group.
+		 *
+		 * @param tasks
+		 *            work requests computing values
+		 * @return futures for the values, in the same order as the tasks
+		 */
+		public <T> List<CompletableFuture<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+			return WorkQueue.invokeAll(this, tasks);
+		}
+
+		/**
+		 * Waits for all pending work in this group to be finished.
+		 */
+		public synchronized void finish() {
+			try {
+				while (pending.get() > 0) {
+					this.wait();
+				}
+			} catch (InterruptedException e) {
+				System.out.println("Interrupted during finish");
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Tests whether every task in this group has finished.
+		 *
+		 * @return true if no work in this group is pending
+		 */
+		public boolean isDone() {
+			return pending.get() == 0;
+		}
+
+		/**
+		 * Returns the number of tasks in this group that have not finished.
+		 *
+		 * @return number of pending tasks
+		 */
+		public int pending() {
+			return pending.get();
+		}
+
+		/**
+		 * Returns the work queue that runs this group's tasks.
+		 *
+		 * @return work queue
+		 */
+		public WorkQueue queue() {
+			return WorkQueue.this;
+		}
+
+		/**
+		 * Indicates that one task in this group finished or was discarded.
+		 */
+		private void decrementPending() {
+			if (pending.decrementAndGet() <= 0) {
+				synchronized (this) {
+					this.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A task that must be told when it is dropped without being run, either
+	 * by a bounded queue or because the queue was shut down, since something
+	 * is waiting for it.
+	 */
+	public static interface Discardable {
+		public void discard();
+	}
+
+	/**
+	 * A task executed through a group, which reports back to the group when it
+	 * is done.
+	 */
+	private static class GroupTask implements Runnable, Discardable {
+		private final TaskGroup group;
+		private final Runnable task;
+
+		public GroupTask(TaskGroup group, Runnable task) {
+			this.group = group;
+			this.task = task;
+		}
+
+		@Override
+		public void discard() {
+			if (task instanceof Discardable) {
+				((Discardable) task).discard();
+			}
+			group.decrementPending();
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				group.decrementPending();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return task.toString();
+		}
+	}
+
+	/**
+	 * A task computing a value, which completes its future with the value.
+	 */
+	private static class Completion<T> implements Runnable, Discardable {
+		private final Callable<T> task;
+		private final CompletableFuture<T> future;
+
+		public Completion(Callable<T> task) {
+			this.task = task;
+			this.future = new CompletableFuture<>();
+		}
+
+		@Override
+		public void run() {
+			try {
+				future.complete(task.call());
+			} catch (Exception e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		@Override
+		public void discard() {
+			future.cancel(false);
+		}
+
+		@Override
+		public String toString() {
+			return task.toString();
+		}
+	}
+
 	/**
 	 * Waits until work is available in the work queue. When work is found, will
 	 * remove the work from the queue and run it. If a shutdown is detected,
@@ -146,29 +751,77 @@ public class WorkQueue {
 	 */
 	private class PoolWorker extends Thread {
 
+		/** Work submitted by this worker; taken from the front, stolen from the back. */
+		private final ConcurrentLinkedDeque<Runnable> tasks = new ConcurrentLinkedDeque<>();
+
+		/**
+		 * Returns the work queue this worker belongs to.
+		 */
+		private WorkQueue owner() {
+			return WorkQueue.this;
+		}
+
+		/**
+		 * Returns the next work for this worker, stealing from other workers if
+		 * there is no work of its own or in the shared queue.
+		 *
+		 * @return work to run, or null if none was found
+		 */
+		private Runnable findWork() {
+			Runnable r = tasks.pollFirst();
+			if (r == null) {
+				r = submissions.poll();
+			}
+			if (r == null && workers.length > 1) {
+				int start = ThreadLocalRandom.current().nextInt(workers.length);
+				for (int i = 0; i < workers.length && r == null; i++) {
+					PoolWorker victim = workers[(start + i) % workers.length];
+					if (victim != this) {
+						r = victim.tasks.pollLast();
+					}
+				}
+			}
+			return r;
+		}
+
 		@Override
 		public void run() {
 			Runnable r = null;
 
-			while (true) {
-				synchronized (queue) {
-					while (queue.isEmpty() && !shutdown) {
-						try {
-							queue.wait();
-						} catch (InterruptedException ex) {
-							System.err.println("Warning: Work queue interrupted.");
-							Thread.currentThread().interrupt();
+			while (!shutdown) {
+				r = findWork();
+
+				// briefly yield before parking, since work often arrives in bursts
+				for (int spins = 0; r == null && spins < SPINS; spins++) {
+					Thread.yield();
+					r = findWork();
+				}
+
+				if (r == null) {
+					// advertise as idle, then check again so a submission
+					// made in between cannot be missed
+					idle.add(this);
+					r = findWork();
+
+					if (r == null) {
+						if (!shutdown) {
+							LockSupport.parkNanos(this, PARK_NANOS);
 						}
+						idle.remove(this);
+						continue;
 					}
+					idle.remove(this);
+				}
 
-					// exit while for one of two reasons:
-					// (a) queue has work, or (b) shutdown has been called
+				// exit for one of two reasons:
+				// (a) found work, or (b) shutdown has been called
+				if (shutdown) {
+					abandon(r);
+					break;
+				}
 
-					if (shutdown) {
-						break;
-					} else {
-						r = queue.removeFirst();
-					}
+				if (isBounded()) {
+					taken();
 				}
 
 				try {
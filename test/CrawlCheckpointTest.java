@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a saved crawl is restored as it was saved.
+ */
+public class CrawlCheckpointTest {
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		InvertedIndex index = new InvertedIndex();
+		URLSeenSet urls = new URLSeenSet();
+		CrawlFrontier frontier = new CrawlFrontier(CrawlFrontier.DEFAULT_PER_HOST, 0, 5);
+
+		CrawlCheckpoint checkpoint = new CrawlCheckpoint(directory);
+		assertFalse(checkpoint.exists());
+
+		String[] first = { "apple", "banana", "apple" };
+		String[] second = { "cherry" };
+		index.addAll(first, "http://example.com/a");
+		index.addAll(second, "http://example.com/b");
+		checkpoint.record("http://example.com/a", first);
+		checkpoint.record("http://example.com/b", second);
+		checkpoint.setValidators("http://example.com/a", new CrawlCheckpoint.Validators("\"v1\"", null, "ff"));
+		checkpoint.setValidators("http://example.com/b", new CrawlCheckpoint.Validators(null, "Mon, 01 Jan 2024", null));
+
+		for (String page : new String[] { "a", "b", "c", "d" }) {
+			urls.add(new URL("http://example.com/" + page));
+		}
+		frontier.add(new URL("http://example.com/c"));
+		frontier.add(new URL("http://example.com/d"));
+
+		checkpoint.save(urls, frontier.snapshot(), 4);
+		checkpoint.close();
+
+		CrawlCheckpoint resumed = new CrawlCheckpoint(directory);
+		assertTrue(resumed.exists());
+
+		InvertedIndex restoredIndex = new InvertedIndex();
+		URLSeenSet restoredURLs = new URLSeenSet();
+		CrawlFrontier restoredFrontier = new CrawlFrontier(CrawlFrontier.DEFAULT_PER_HOST, 0, 5);
+		int scheduled = resumed.restore(restoredIndex, restoredURLs, restoredFrontier, null);
+
+		assertEquals(4, scheduled);
+		assertEquals(index.toString(), restoredIndex.toString());
+		assertEquals(4, restoredURLs.size());
+		assertTrue(restoredURLs.contains(new URL("http://example.com/d")));
+		assertEquals(frontier.snapshot(), restoredFrontier.snapshot());
+
+		assertEquals(2, resumed.finished().size());
+		assertEquals(Map.of("If-None-Match", "\"v1\""),
+				resumed.getValidators("http://example.com/a").conditionalHeaders());
+		assertEquals(Map.of("If-Modified-Since", "Mon, 01 Jan 2024"),
+				resumed.getValidators("http://example.com/b").conditionalHeaders());
+		assertTrue(resumed.getValidators("http://example.com/a")
+				.sameContent(new CrawlCheckpoint.Validators(null, null, "ff")));
+		assertFalse(resumed.getValidators("http://example.com/b")
+				.sameContent(new CrawlCheckpoint.Validators(null, null, null)));
+		assertNull(resumed.getValidators("http://example.com/c"));
+	}
+
+	@Test
+	public void testRecrawlKeepsLastRecord() throws IOException {
+		CrawlCheckpoint checkpoint = new CrawlCheckpoint(directory);
+		checkpoint.record("http://example.com/a", new String[] { "old", "words" });
+		checkpoint.record("http://example.com/a", new String[] { "new" });
+		checkpoint.save(new URLSeenSet(), List.of(), 1);
+		checkpoint.close();
+
+		InvertedIndex index = new InvertedIndex();
+		new CrawlCheckpoint(directory).restoreIndex(index, null);
+
+		assertTrue(index.contains("new", "http://example.com/a"));
+		assertFalse(index.contains("old"));
+		assertFalse(index.contains("words"));
+	}
+
+	@Test
+	public void testTornRecordSkipped() throws IOException {
+		CrawlCheckpoint checkpoint = new CrawlCheckpoint(directory);
+		checkpoint.record("http://example.com/a", new String[] { "kept" });
+		checkpoint.save(new URLSeenSet(), List.of(), 1);
+		checkpoint.close();
+
+		// a crash part-way through the next record
+		Files.write(directory.resolve(CrawlCheckpoint.DOCUMENTS),
+				"http://example.com/b\t10\tlost".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		CrawlCheckpoint resumed = new CrawlCheckpoint(directory);
+		resumed.record("http://example.com/c", new String[] { "after" });
+		resumed.close();
+
+		InvertedIndex index = new InvertedIndex();
+		new CrawlCheckpoint(directory).restoreIndex(index, null);
+
+		assertTrue(index.contains("kept", "http://example.com/a"));
+		assertFalse(index.contains("lost"));
+		assertTrue(index.contains("after", "http://example.com/c"));
+	}
+}
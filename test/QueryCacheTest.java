@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that cached search results are reused until the index changes.
+ */
+public class QueryCacheTest {
+
+	private InvertedIndex index;
+	private QueryCache cache;
+
+	@BeforeEach
+	public void setup() {
+		index = new InvertedIndex();
+		index.addAll(new String[] { "apple", "banana" }, "a.txt");
+		index.addAll(new String[] { "apple", "apple", "cherry" }, "b.txt");
+		cache = new QueryCache(10);
+	}
+
+	/**
+	 * Returns the paths of the results, in order.
+	 */
+	private static ArrayList<String> paths(ArrayList<SearchResult> results) {
+		ArrayList<String> paths = new ArrayList<>();
+		for (SearchResult result : results) {
+			paths.add(result.getPath());
+		}
+		return paths;
+	}
+
+	@Test
+	public void testHit() {
+		String[] query = { "apple" };
+		ArrayList<SearchResult> first = cache.search(index, query, true);
+		ArrayList<SearchResult> second = cache.search(index, query, true);
+
+		assertSame(first, second);
+		assertEquals(0.5, cache.hitRate(), 0);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testExactAndPartialSeparate() {
+		String[] query = { "app" };
+		ArrayList<SearchResult> exact = cache.search(index, query, true);
+		ArrayList<SearchResult> partial = cache.search(index, query, false);
+
+		assertTrue(exact.isEmpty());
+		assertEquals(2, partial.size());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testInvalidatedByAdd() {
+		String[] query = { "cherry" };
+		ArrayList<SearchResult> before = cache.search(index, query, true);
+		assertEquals(1, before.size());
+
+		index.addAll(new String[] { "cherry", "cherry" }, "c.txt");
+		ArrayList<SearchResult> after = cache.search(index, query, true);
+
+		assertNotSame(before, after);
+		assertEquals(2, after.size());
+		assertEquals("c.txt", after.get(0).getPath());
+		assertSame(after, cache.search(index, query, true));
+	}
+
+	@Test
+	public void testInvalidatedByRemove() {
+		String[] query = { "apple" };
+		assertEquals(2, cache.search(index, query, true).size());
+
+		index.remove("b.txt");
+		assertEquals(1, cache.search(index, query, true).size());
+	}
+
+	@Test
+	public void testUnchangedByFailedRemove() {
+		String[] query = { "apple" };
+		ArrayList<SearchResult> before = cache.search(index, query, true);
+
+		index.remove("missing.txt");
+		assertSame(before, cache.search(index, query, true));
+	}
+
+	@Test
+	public void testStaleGeneration() {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		cache.put("apple", true, 3, results);
+
+		assertSame(results, cache.get("apple", true, 3));
+		assertNull(cache.get("apple", true, 4));
+
+		// the stale entry was dropped
+		assertNull(cache.get("apple", true, 3));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testOlderResultsNotCached() {
+		ArrayList<SearchResult> newer = new ArrayList<>();
+		cache.put("apple", true, 5, newer);
+		cache.put("apple", true, 4, new ArrayList<>());
+
+		assertSame(newer, cache.get("apple", true, 5));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		QueryCache small = new QueryCache(2);
+		small.put("a", true, 1, new ArrayList<>());
+		small.put("b", true, 1, new ArrayList<>());
+		assertNotNull(small.get("a", true, 1));
+		small.put("c", true, 1, new ArrayList<>());
+
+		assertEquals(2, small.size());
+		assertNotNull(small.get("a", true, 1));
+		assertNull(small.get("b", true, 1));
+		assertNotNull(small.get("c", true, 1));
+	}
+
+	@Test
+	public void testClear() {
+		cache.search(index, new String[] { "apple" }, true);
+		assertTrue(cache.memory() > 0);
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.memory());
+	}
+
+	@Test
+	public void testFuzzyKeyedByDistance() {
+		String[] query = { "aple" };
+		ArrayList<SearchResult> one = cache.fuzzySearch(index, query, 1, null);
+		ArrayList<SearchResult> two = cache.fuzzySearch(index, query, 2, null);
+
+		assertEquals(paths(one), paths(index.fuzzySearch(query, 1, null)));
+		assertNotSame(one, two);
+		assertSame(one, cache.fuzzySearch(index, query, 1, null));
+		assertNull(cache.get("aple", true, index.generation()));
+	}
+}
@@ -0,0 +1,223 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Tests the reentrancy and writer preference of the read/write lock.
+ */
+@Timeout(30)
+public class ReadWriteLockTest {
+
+	/**
+	 * Starts a thread and waits until it is blocked on the lock.
+	 */
+	private static Thread blocked(Runnable task) throws InterruptedException {
+		Thread thread = new Thread(task);
+		thread.start();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (thread.getState() != Thread.State.WAITING) {
+			if (!thread.isAlive() || System.nanoTime() > deadline) {
+				fail("thread did not wait for the lock");
+			}
+			Thread.sleep(1);
+		}
+		return thread;
+	}
+
+	@Test
+	public void testConcurrentReaders() throws InterruptedException {
+		ReadWriteLock lock = new ReadWriteLock();
+		CountDownLatch both = new CountDownLatch(2);
+		List<Thread> readers = new ArrayList<>();
+
+		// each reader only finishes once both hold the lock at the same time
+		for (int i = 0; i < 2; i++) {
+			readers.add(new Thread(() -> {
+				lock.lockReadOnly();
+				try {
+					both.countDown();
+					both.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					lock.unlockReadOnly();
+				}
+			}));
+		}
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		assertTrue(both.await(5, TimeUnit.SECONDS));
+		for (Thread reader : readers) {
+			reader.join();
+		}
+	}
+
+	@Test
+	public void testWriterExcludesReaders() throws InterruptedException {
+		ReadWriteLock lock = new ReadWriteLock();
+		lock.lockReadWrite();
+
+		Thread reader = blocked(() -> {
+			lock.lockReadOnly();
+			lock.unlockReadOnly();
+		});
+
+		lock.unlockReadWrite();
+		reader.join();
+	}
+
+	@Test
+	public void testReentrantRead() throws InterruptedException {
+		ReadWriteLock lock = new ReadWriteLock();
+		lock.lockReadOnly();
+
+		Thread writer = blocked(() -> {
+			lock.lockReadWrite();
+			lock.unlockReadWrite();
+		});
+
+		// a waiting writer does not hold up a thread that already reads
+		lock.lockReadOnly();
+		lock.unlockReadOnly();
+		assertTrue(writer.isAlive());
+
+		lock.unlockReadOnly();
+		writer.join();
+	}
+
+	@Test
+	public void testReentrantWrite() throws InterruptedException {
+		ReadWriteLock lock = new ReadWriteLock();
+		lock.lockReadWrite();
+		lock.lockReadWrite();
+		lock.lockReadOnly();
+		lock.unlockReadOnly();
+
+		Thread reader = blocked(() -> {
+			lock.lockReadOnly();
+			lock.unlockReadOnly();
+		});
+
+		lock.unlockReadWrite();
+		reader.join(100);
+		assertTrue(reader.isAlive(), "write lock released before every hold was");
+
+		lock.unlockReadWrite();
+		reader.join();
+	}
+
+	@Test
+	public void testWriterPreferred() throws InterruptedException {
+		ReadWriteLock lock = new ReadWriteLock();
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		lock.lockReadOnly();
+
+		Thread writer = blocked(() -> {
+			lock.lockReadWrite();
+			order.add("writer");
+			lock.unlockReadWrite();
+		});
+
+		// only readers hold the lock, but a new reader waits behind the writer
+		Thread reader = blocked(() -> {
+			lock.lockReadOnly();
+			order.add("reader");
+			lock.unlockReadOnly();
+		});
+
+		lock.unlockReadOnly();
+		writer.join();
+		reader.join();
+
+		assertEquals(List.of("writer", "reader"), order);
+	}
+
+	@Test
+	public void testNoUpgrade() {
+		ReadWriteLock lock = new ReadWriteLock();
+		lock.lockReadOnly();
+		assertThrows(IllegalMonitorStateException.class, lock::lockReadWrite);
+		lock.unlockReadOnly();
+
+		lock.lockReadWrite();
+		lock.unlockReadWrite();
+	}
+
+	@Test
+	public void testUnlockWithoutLock() throws InterruptedException {
+		ReadWriteLock lock = new ReadWriteLock();
+		assertThrows(IllegalMonitorStateException.class, lock::unlockReadOnly);
+		assertThrows(IllegalMonitorStateException.class, lock::unlockReadWrite);
+
+		lock.lockReadWrite();
+		boolean[] thrown = new boolean[1];
+		Thread other = new Thread(() -> {
+			try {
+				lock.unlockReadWrite();
+			} catch (IllegalMonitorStateException e) {
+				thrown[0] = true;
+			}
+		});
+		other.start();
+		other.join();
+		assertTrue(thrown[0], "only the writer may release the write lock");
+		lock.unlockReadWrite();
+	}
+
+	@Test
+	public void testWritesExclusive() throws InterruptedException {
+		ReadWriteLock lock = new ReadWriteLock();
+		int[] counter = new int[1];
+		boolean[] overlapped = new boolean[1];
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < 8; i++) {
+			boolean writes = i % 2 == 0;
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < 10000; j++) {
+					if (writes) {
+						lock.lockReadWrite();
+						try {
+							counter[0]++;
+						} finally {
+							lock.unlockReadWrite();
+						}
+					} else {
+						lock.lockReadOnly();
+						try {
+							int before = counter[0];
+							Thread.yield();
+							if (counter[0] != before) {
+								overlapped[0] = true;
+							}
+						} finally {
+							lock.unlockReadOnly();
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(40000, counter[0]);
+		assertFalse(overlapped[0], "a write happened while a reader held the lock");
+	}
+}
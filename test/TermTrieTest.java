@@ -0,0 +1,201 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the completions kept by the term trie, that the index keeps them
+ * current as files are added and removed, and the words found within an edit
+ * distance.
+ */
+public class TermTrieTest {
+
+	/**
+	 * Returns an ordered map of alternating words and counts.
+	 */
+	private static LinkedHashMap<String, Integer> expected(Object... pairs) {
+		LinkedHashMap<String, Integer> map = new LinkedHashMap<>();
+		for (int i = 0; i < pairs.length; i += 2) {
+			map.put((String) pairs[i], (Integer) pairs[i + 1]);
+		}
+		return map;
+	}
+
+	/**
+	 * Compares the entries of the maps in order, since equals ignores order.
+	 */
+	private static void assertOrdered(Map<String, Integer> expected, Map<String, Integer> actual) {
+		assertEquals(List.copyOf(expected.entrySet()), List.copyOf(actual.entrySet()));
+	}
+
+	/**
+	 * Computes the edit distance of two words with the full table.
+	 */
+	private static int distance(String a, String b) {
+		int[][] table = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++) {
+			for (int j = 0; j <= b.length(); j++) {
+				if (i == 0 || j == 0) {
+					table[i][j] = i + j;
+				} else {
+					int replace = table[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+					table[i][j] = Math.min(replace, Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+				}
+			}
+		}
+		return table[a.length()][b.length()];
+	}
+
+	@Test
+	public void testMostFrequentFirst() {
+		TermTrie trie = new TermTrie(3);
+		trie.add("car", 2);
+		trie.add("card", 5);
+		trie.add("care", 1);
+		trie.add("cart", 4);
+		trie.add("dog", 9);
+
+		assertOrdered(expected("card", 5, "cart", 4, "car", 2), trie.suggest("car", 10));
+		assertOrdered(expected("card", 5, "cart", 4), trie.suggest("car", 2));
+		assertOrdered(expected("dog", 9, "card", 5, "cart", 4), trie.suggest("", 10));
+		assertOrdered(expected("care", 1), trie.suggest("care", 10));
+	}
+
+	@Test
+	public void testTiesAlphabetical() {
+		TermTrie trie = new TermTrie(2);
+		trie.add("bat", 3);
+		trie.add("bad", 3);
+		trie.add("ban", 3);
+
+		assertOrdered(expected("bad", 3, "ban", 3), trie.suggest("ba", 10));
+	}
+
+	@Test
+	public void testMissingPrefix() {
+		TermTrie trie = new TermTrie(TermTrie.DEFAULT_SIZE);
+		trie.add("apple", 1);
+
+		assertTrue(trie.suggest("b", 10).isEmpty());
+		assertTrue(trie.suggest("apples", 10).isEmpty());
+		assertTrue(new TermTrie(TermTrie.DEFAULT_SIZE).suggest("", 10).isEmpty());
+	}
+
+	@Test
+	public void testUpdateMatchesRebuild() {
+		Random random = new Random(42);
+		String[] words = new String[300];
+		for (int i = 0; i < words.length; i++) {
+			StringBuilder word = new StringBuilder();
+			for (int j = 1 + random.nextInt(5); j > 0; j--) {
+				word.append((char) ('a' + random.nextInt(4)));
+			}
+			words[i] = word.toString();
+		}
+
+		// counts only grow, as files are added
+		TermTrie updated = new TermTrie(4);
+		LinkedHashMap<String, Integer> current = new LinkedHashMap<>();
+		for (int step = 0; step < 3000; step++) {
+			int i = random.nextInt(words.length);
+			current.merge(words[i], 1, Integer::sum);
+			updated.update(words[i], current.get(words[i]));
+		}
+
+		TermTrie rebuilt = new TermTrie(4);
+		current.keySet().stream().sorted().forEach(word -> rebuilt.add(word, current.get(word)));
+
+		for (String prefix : new String[] { "", "a", "b", "ab", "cd", "dda", "abcd" }) {
+			assertOrdered(rebuilt.suggest(prefix, 4), updated.suggest(prefix, 4));
+		}
+	}
+
+	@Test
+	public void testIndexSuggestionsFollowAdds() {
+		InvertedIndex index = new InvertedIndex();
+		index.addAll(new String[] { "tree", "trie", "trie" }, "a.txt");
+		assertOrdered(expected("tree", 1, "trie", 1), index.suggest("tr", 10));
+
+		index.addAll(new String[] { "trie", "trip" }, "b.txt");
+		assertOrdered(expected("trie", 2, "tree", 1, "trip", 1), index.suggest("tr", 10));
+
+		InvertedIndex other = new InvertedIndex();
+		other.addAll(new String[] { "trip", "tree" }, "c.txt");
+		other.addAll(new String[] { "trip" }, "d.txt");
+		index.addAll(other);
+		assertOrdered(expected("trip", 3, "tree", 2, "trie", 2), index.suggest("tr", 10));
+	}
+
+	@Test
+	public void testIndexSuggestionsFollowRemoves() {
+		InvertedIndex index = new InvertedIndex();
+		index.addAll(new String[] { "trie" }, "a.txt");
+		index.addAll(new String[] { "trie" }, "b.txt");
+		index.addAll(new String[] { "tree" }, "c.txt");
+		assertOrdered(expected("trie", 2, "tree", 1), index.suggest("tr", 10));
+
+		index.remove("a.txt");
+		index.remove("b.txt");
+		assertOrdered(expected("tree", 1), index.suggest("tr", 10));
+	}
+
+	@Test
+	public void testWithin() {
+		TermTrie trie = new TermTrie(TermTrie.DEFAULT_SIZE);
+		for (String word : new String[] { "cat", "cats", "cut", "dog", "scat", "ta" }) {
+			trie.add(word, 1);
+		}
+
+		assertEquals(List.of("cat"), trie.within("cat", 0));
+		assertEquals(List.of("cat", "cats", "cut", "scat"), trie.within("cat", 1));
+		assertEquals(List.of("cat", "cats", "cut", "scat", "ta"), trie.within("cat", 2));
+		assertEquals(List.of("cat", "cut"), trie.within("cot", 1));
+		assertTrue(trie.within("zzz", 2).isEmpty());
+	}
+
+	@Test
+	public void testWithinMatchesEditDistance() {
+		Random random = new Random(7);
+		TermTrie trie = new TermTrie(TermTrie.DEFAULT_SIZE);
+		ArrayList<String> words = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			StringBuilder word = new StringBuilder();
+			for (int j = 1 + random.nextInt(6); j > 0; j--) {
+				word.append((char) ('a' + random.nextInt(3)));
+			}
+			words.add(word.toString());
+		}
+		words.stream().distinct().sorted().forEach(word -> trie.add(word, 1));
+
+		for (String query : new String[] { "a", "abc", "cab", "bbbb", "acbacb" }) {
+			for (int edits = 0; edits <= InvertedIndex.MAX_DISTANCE; edits++) {
+				int limit = edits;
+				List<String> expected = words.stream().distinct().sorted()
+						.filter(word -> distance(word, query) <= limit).toList();
+				assertEquals(expected, trie.within(query, edits), query + " within " + edits);
+			}
+		}
+	}
+
+	@Test
+	public void testIndexFuzzySearch() {
+		InvertedIndex index = new InvertedIndex();
+		index.addAll(new String[] { "search", "engine" }, "a.txt");
+		index.addAll(new String[] { "serch", "serch", "search" }, "b.txt");
+		index.addAll(new String[] { "serches" }, "c.txt");
+
+		ArrayList<String> paths = new ArrayList<>();
+		for (SearchResult result : index.fuzzySearch(new String[] { "serch" }, 1, null)) {
+			paths.add(result.getPath());
+		}
+		assertEquals(List.of("b.txt", "a.txt"), paths);
+
+		assertEquals(3, index.fuzzySearch(new String[] { "serch" }, 2, null).size());
+	}
+}
@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the set of URLs the crawler has seen.
+ */
+public class URLSeenSetTest {
+
+	@Test
+	public void testAddOnce() throws MalformedURLException {
+		URLSeenSet urls = new URLSeenSet();
+		URL url = new URL("http://example.com/a.html");
+
+		assertFalse(urls.contains(url));
+		assertTrue(urls.add(url));
+		assertFalse(urls.add(url));
+		assertTrue(urls.contains(url));
+		assertEquals(1, urls.size());
+	}
+
+	@Test
+	public void testNormalizedDuplicates() throws MalformedURLException {
+		URLSeenSet urls = new URLSeenSet();
+
+		assertTrue(urls.add(new URL("http://example.com")));
+		assertFalse(urls.add(new URL("HTTP://Example.COM/")));
+		assertFalse(urls.add(new URL("http://example.com:80/")));
+		assertFalse(urls.add(new URL("http://example.com/#top")));
+		assertEquals(1, urls.size());
+	}
+
+	@Test
+	public void testDistinctURLs() throws MalformedURLException {
+		URLSeenSet urls = new URLSeenSet();
+
+		assertTrue(urls.add(new URL("http://example.com/")));
+		assertTrue(urls.add(new URL("http://example.com:8080/")));
+		assertTrue(urls.add(new URL("https://example.com/")));
+		assertTrue(urls.add(new URL("http://example.com/?page=2")));
+		assertTrue(urls.add(new URL("http://example.com/Index.html")));
+		assertTrue(urls.add(new URL("http://example.com/index.html")));
+		assertEquals(6, urls.size());
+	}
+
+	@Test
+	public void testFingerprintNeverZero() {
+		assertNotEquals(0L, URLSeenSet.fingerprint(""));
+		assertEquals(URLSeenSet.fingerprint("http://example.com/"), URLSeenSet.fingerprint("http://example.com/"));
+		assertNotEquals(URLSeenSet.fingerprint("http://example.com/a"), URLSeenSet.fingerprint("http://example.com/b"));
+	}
+
+	@Test
+	public void testGrowth() throws MalformedURLException {
+		URLSeenSet urls = new URLSeenSet();
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(urls.add(new URL("http://example.com/page" + i + ".html")));
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(urls.contains(new URL("http://example.com/page" + i + ".html")));
+		}
+		assertFalse(urls.contains(new URL("http://example.com/page10000.html")));
+		assertEquals(10000, urls.size());
+	}
+
+	@Test
+	public void testConcurrentAdds() throws InterruptedException {
+		URLSeenSet urls = new URLSeenSet();
+		List<Thread> threads = new ArrayList<>();
+		int[] added = new int[8];
+
+		// every thread adds the same urls, so each url is new to exactly one of them
+		for (int t = 0; t < added.length; t++) {
+			int id = t;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 5000; i++) {
+					try {
+						if (urls.add(new URL("http://example.com/" + i))) {
+							added[id]++;
+						}
+					} catch (MalformedURLException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int total = 0;
+		for (int count : added) {
+			total += count;
+		}
+		assertEquals(5000, total);
+		assertEquals(5000, urls.size());
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		URLSeenSet urls = new URLSeenSet();
+		for (int i = 0; i < 1000; i++) {
+			urls.add(new URL("http://example.com/" + i));
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			urls.write(out);
+		}
+
+		URLSeenSet copy = new URLSeenSet();
+		copy.add(new URL("http://example.com/0"));
+		copy.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(1000, copy.size());
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(copy.contains(new URL("http://example.com/" + i)));
+		}
+		assertFalse(copy.contains(new URL("http://example.com/1000")));
+	}
+}
@@ -0,0 +1,206 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Tests the work-stealing queue, its bounded policies and its shutdown.
+ */
+@Timeout(30)
+public class WorkQueueTest {
+
+	/**
+	 * Submits a task that keeps the only worker busy until the latch is
+	 * released, and waits until it is running.
+	 */
+	private static CountDownLatch occupy(WorkQueue queue) throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		queue.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		started.await();
+		return release;
+	}
+
+	@Test
+	public void testFinishWaitsForAll() {
+		WorkQueue queue = new WorkQueue(4);
+		AtomicInteger ran = new AtomicInteger();
+		for (int i = 0; i < 1000; i++) {
+			queue.execute(ran::incrementAndGet);
+		}
+		queue.finish();
+		queue.shutdown();
+
+		assertEquals(1000, ran.get());
+	}
+
+	@Test
+	public void testNestedSubmissions() {
+		WorkQueue queue = new WorkQueue(4);
+		AtomicInteger ran = new AtomicInteger();
+
+		// every task submitted by a worker goes onto its own deque, where idle workers steal it
+		for (int i = 0; i < 10; i++) {
+			queue.execute(() -> {
+				for (int j = 0; j < 100; j++) {
+					queue.execute(ran::incrementAndGet);
+				}
+			});
+		}
+		queue.finish();
+		queue.shutdown();
+
+		assertEquals(1000, ran.get());
+	}
+
+	@Test
+	public void testBlockWaitsForRoom() throws InterruptedException {
+		WorkQueue queue = new WorkQueue(1, 1, WorkQueue.Policy.BLOCK);
+		CountDownLatch release = occupy(queue);
+		AtomicInteger ran = new AtomicInteger();
+		queue.execute(ran::incrementAndGet);
+
+		Thread producer = new Thread(() -> queue.execute(ran::incrementAndGet));
+		producer.start();
+		producer.join(200);
+		assertTrue(producer.isAlive(), "producer should wait while the queue is full");
+		assertEquals(0, ran.get());
+
+		release.countDown();
+		producer.join();
+		queue.finish();
+		queue.shutdown();
+
+		assertEquals(2, ran.get());
+	}
+
+	@Test
+	public void testCallerRuns() throws InterruptedException {
+		WorkQueue queue = new WorkQueue(1, 1, WorkQueue.Policy.CALLER_RUNS);
+		CountDownLatch release = occupy(queue);
+		queue.execute(() -> {
+		});
+
+		Thread[] runner = new Thread[1];
+		queue.execute(() -> runner[0] = Thread.currentThread());
+		assertSame(Thread.currentThread(), runner[0]);
+
+		release.countDown();
+		queue.finish();
+		queue.shutdown();
+	}
+
+	@Test
+	public void testDropOldest() throws InterruptedException {
+		WorkQueue queue = new WorkQueue(1, 2, WorkQueue.Policy.DROP_OLDEST);
+		CountDownLatch release = occupy(queue);
+
+		CompletableFuture<Integer> oldest = queue.submit(() -> 1);
+		CompletableFuture<Integer> older = queue.submit(() -> 2);
+		CompletableFuture<Integer> newest = queue.submit(() -> 3);
+
+		assertTrue(oldest.isCancelled());
+		assertThrows(CancellationException.class, () -> WorkQueue.join(oldest));
+
+		release.countDown();
+		assertEquals(2, WorkQueue.join(older));
+		assertEquals(3, WorkQueue.join(newest));
+		queue.finish();
+		queue.shutdown();
+	}
+
+	@Test
+	public void testDropOldestUnderLoad() {
+		WorkQueue queue = new WorkQueue(2, 4, WorkQueue.Policy.DROP_OLDEST);
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			int value = i;
+			futures.add(queue.submit(() -> value));
+		}
+		queue.finish();
+		queue.shutdown();
+
+		// every task either ran or was dropped, and the last one is never dropped
+		for (CompletableFuture<Integer> future : futures) {
+			assertTrue(future.isDone());
+		}
+		assertEquals(1999, WorkQueue.join(futures.get(futures.size() - 1)));
+	}
+
+	@Test
+	public void testShutdownDiscardsWaiting() throws InterruptedException {
+		assertShutdownDiscards(new WorkQueue(1));
+	}
+
+	@Test
+	public void testBoundedShutdownDiscardsWaiting() throws InterruptedException {
+		assertShutdownDiscards(new WorkQueue(1, 100, WorkQueue.Policy.BLOCK));
+	}
+
+	/**
+	 * Shuts the queue down while tasks of a group are waiting, and checks that
+	 * they are cancelled instead of left for the group to wait on.
+	 */
+	private static void assertShutdownDiscards(WorkQueue queue) throws InterruptedException {
+		WorkQueue.TaskGroup group = queue.newGroup();
+		CountDownLatch release = occupy(queue);
+
+		List<CompletableFuture<Integer>> waiting = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			int value = i;
+			waiting.add(group.submit(() -> value));
+		}
+		queue.shutdown();
+		release.countDown();
+
+		group.finish();
+		queue.finish();
+		assertEquals(0, group.pending());
+		for (CompletableFuture<Integer> future : waiting) {
+			assertTrue(future.isCancelled());
+		}
+
+		// submitted after shutdown, with no worker left to run it
+		assertTrue(queue.submit(() -> 1).isCancelled());
+	}
+
+	@Test
+	public void testShutdownReleasesBlockedProducer() throws InterruptedException {
+		WorkQueue queue = new WorkQueue(1, 1, WorkQueue.Policy.BLOCK);
+		CountDownLatch release = occupy(queue);
+		queue.execute(() -> {
+		});
+
+		AtomicReference<CompletableFuture<Integer>> blocked = new AtomicReference<>();
+		Thread producer = new Thread(() -> blocked.set(queue.submit(() -> 1)));
+		producer.start();
+		producer.join(200);
+		assertTrue(producer.isAlive());
+
+		queue.shutdown();
+		producer.join(TimeUnit.SECONDS.toMillis(5));
+		assertFalse(producer.isAlive(), "shutdown should release a producer waiting for room");
+		release.countDown();
+		assertTrue(blocked.get().isCancelled());
+	}
+}